@@ -0,0 +1,220 @@
+package org.coffeeshop.benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * Entry point of the benchmarks of the cache package and the HTTP server. The benchmarks are
+ * run one after another and their results are written to a JSON file, so
+ * that the results of different versions can be compared.
+ *
+ * <pre>
+ * java org.coffeeshop.benchmark.Benchmark [-t 1,2,4] [-wi 2] [-i 5] [-r 1000]
+ *     [-f cache.mixed] [-o results.json]
+ * </pre>
+ *
+ * <ul>
+ * <li><code>-t</code> thread counts of the concurrent benchmarks</li>
+ * <li><code>-wi</code> number of warmup iterations</li>
+ * <li><code>-i</code> number of measured iterations</li>
+ * <li><code>-r</code> duration of an iteration in milliseconds</li>
+ * <li><code>-f</code> runs only the benchmarks whose name contains the
+ * text</li>
+ * <li><code>-o</code> file for the results</li>
+ * </ul>
+ */
+public class Benchmark {
+
+	private static final int[] DEFAULT_THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+
+	private Runner runner;
+
+	private int[] threads;
+
+	private String filter;
+
+	private List<Result> results = new ArrayList<Result>();
+
+	public Benchmark(Runner runner, int[] threads, String filter) {
+		this.runner = runner;
+		this.threads = threads;
+		this.filter = filter;
+	}
+
+	public Runner getRunner() {
+		return runner;
+	}
+
+	public int[] getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Checks if the benchmark with the given name should be run.
+	 *
+	 * @param name name of the benchmark
+	 * @return <code>true</code> if the benchmark is enabled
+	 */
+	public boolean isEnabled(String name) {
+		return filter == null || name.indexOf(filter) >= 0;
+	}
+
+	/**
+	 * Adds a result and prints it to the standard output.
+	 *
+	 * @param result the result
+	 */
+	public void add(Result result) {
+
+		results.add(result);
+
+		System.out.println(result);
+
+	}
+
+	public List<Result> getResults() {
+		return results;
+	}
+
+	/**
+	 * Generates a payload for the cache benchmarks.
+	 *
+	 * @param size size of the payload
+	 * @param compressible <code>true</code> for a text-like payload,
+	 *            <code>false</code> for random bytes
+	 * @return the payload
+	 */
+	public static byte[] payload(int size, boolean compressible) {
+
+		Random random = new Random(size);
+
+		byte[] data = new byte[size];
+
+		if (!compressible) {
+			random.nextBytes(data);
+			return data;
+		}
+
+		String[] words = { "cache", "coffee", "shop", "entry", "value", "key",
+				"segment", "memory", "disk", "the", "of", "and", "a", "to" };
+
+		int i = 0;
+
+		while (i < size) {
+
+			String word = words[random.nextInt(words.length)];
+
+			for (int j = 0; j < word.length() && i < size; j++)
+				data[i++] = (byte) word.charAt(j);
+
+			if (i < size)
+				data[i++] = (byte) (random.nextInt(8) == 0 ? '\n' : ' ');
+
+		}
+
+		return data;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int[] threads = DEFAULT_THREADS;
+		int warmup = 2, iterations = 5;
+		long time = 1000;
+		String filter = null, output = "benchmark-results.json";
+
+		for (int i = 0; i < args.length; i++) {
+
+			String arg = args[i];
+
+			if (i + 1 == args.length)
+				usage("Missing value of " + arg);
+
+			String value = args[++i];
+
+			if (arg.equals("-t"))
+				threads = parseThreads(value);
+			else if (arg.equals("-wi"))
+				warmup = Integer.parseInt(value);
+			else if (arg.equals("-i"))
+				iterations = Integer.parseInt(value);
+			else if (arg.equals("-r"))
+				time = Long.parseLong(value);
+			else if (arg.equals("-f"))
+				filter = value;
+			else if (arg.equals("-o"))
+				output = value;
+			else
+				usage("Unknown option " + arg);
+
+		}
+
+		Benchmark benchmark = new Benchmark(new Runner(warmup, iterations, time), threads, filter);
+
+		Suite[] suites = { new CacheBenchmarks(), new SpillBenchmarks(),
+				new HitRateBenchmarks(), new MemoryBenchmarks(), new CompressionBenchmarks(),
+				new HttpBenchmarks() };
+
+		for (Suite suite : suites)
+			suite.run(benchmark);
+
+		benchmark.write(output);
+
+	}
+
+	private void write(String file) throws IOException {
+
+		Map<String, Object> environment = new LinkedHashMap<String, Object>();
+
+		environment.put("jvm", System.getProperty("java.vm.name"));
+		environment.put("jdkVersion", System.getProperty("java.version"));
+		environment.put("processors", Runtime.getRuntime().availableProcessors());
+		environment.put("timestamp", System.currentTimeMillis());
+		environment.put("warmupIterations", runner.getWarmupIterations());
+		environment.put("measurementIterations", runner.getIterations());
+
+		FileWriter out = new FileWriter(file);
+
+		try {
+			new JSONWriter(out).write(environment, results);
+		} finally {
+			out.close();
+		}
+
+		System.out.println("Results written to " + file);
+
+	}
+
+	private static int[] parseThreads(String value) {
+
+		StringTokenizer tokens = new StringTokenizer(value, ",");
+
+		int[] threads = new int[tokens.countTokens()];
+
+		for (int i = 0; i < threads.length; i++) {
+
+			threads[i] = Integer.parseInt(tokens.nextToken().trim());
+
+			if (threads[i] < 1)
+				usage("Thread count must be positive");
+
+		}
+
+		return threads;
+	}
+
+	private static void usage(String message) {
+
+		System.err.println(message);
+		System.err.println("Usage: Benchmark [-t threads] [-wi warmup] [-i iterations] [-r millis] [-f filter] [-o file]");
+
+		System.exit(1);
+
+	}
+
+}
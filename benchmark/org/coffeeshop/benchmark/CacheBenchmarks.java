@@ -0,0 +1,83 @@
+package org.coffeeshop.benchmark;
+
+import org.coffeeshop.cache.ByteArrayCache;
+import org.coffeeshop.cache.Cache;
+import org.coffeeshop.cache.ConcurrentObjectCache;
+import org.coffeeshop.cache.ObjectCache;
+import org.coffeeshop.cache.WindowTinyLFUPolicy;
+
+/**
+ * Throughput of the in-memory caches under read-heavy, write-heavy and
+ * mixed workloads with Zipf distributed keys.
+ */
+public class CacheBenchmarks implements Suite {
+
+	private static final int CAPACITY = 10000;
+
+	private static final int KEYS = 100000;
+
+	private static final double SKEW = 0.9;
+
+	private static final int VALUE_SIZE = 64;
+
+	public void run(Benchmark benchmark) throws Exception {
+
+		CacheFactory[] caches = {
+
+			new CacheFactory("ObjectCache/LRU") {
+				public Cache<String, byte[]> create() {
+					return new ObjectCache<String, byte[]>(CAPACITY);
+				}
+			},
+
+			new CacheFactory("ObjectCache/W-TinyLFU") {
+				public Cache<String, byte[]> create() {
+					return new ObjectCache<String, byte[]>(CAPACITY,
+							new WindowTinyLFUPolicy<String>(CAPACITY));
+				}
+			},
+
+			new CacheFactory("ConcurrentObjectCache") {
+				public Cache<String, byte[]> create() {
+					return new ConcurrentObjectCache<String, byte[]>(CAPACITY);
+				}
+			},
+
+			new CacheFactory("ByteArrayCache") {
+				public Cache<String, byte[]> create() throws Exception {
+					return new ByteArrayCache(CAPACITY * VALUE_SIZE, CAPACITY * VALUE_SIZE, null);
+				}
+			}
+
+		};
+
+		String[] workloads = { "cache.readHeavy", "cache.mixed", "cache.writeHeavy" };
+
+		double[] readRatios = { 0.95, 0.5, 0.1 };
+
+		byte[] value = Benchmark.payload(VALUE_SIZE, false);
+
+		for (int w = 0; w < workloads.length; w++) {
+
+			if (!benchmark.isEnabled(workloads[w]))
+				continue;
+
+			for (CacheFactory cache : caches) {
+
+				for (int threads : benchmark.getThreads()) {
+
+					Workload workload = new CacheWorkload(cache, readRatios[w], KEYS, SKEW, value);
+
+					benchmark.add(benchmark.getRunner().throughput(workloads[w], workload, threads)
+							.parameter("cache", cache.getName())
+							.parameter("readRatio", readRatios[w]));
+
+				}
+
+			}
+
+		}
+
+	}
+
+}
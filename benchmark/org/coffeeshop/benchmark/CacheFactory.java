@@ -0,0 +1,40 @@
+package org.coffeeshop.benchmark;
+
+import org.coffeeshop.cache.Cache;
+
+/**
+ * Creates a new cache for every benchmark run, so that the runs do not
+ * influence each other.
+ */
+public abstract class CacheFactory {
+
+	private String name;
+
+	public CacheFactory(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Creates a new empty cache.
+	 *
+	 * @return the cache
+	 * @throws Exception
+	 */
+	public abstract Cache<String, byte[]> create() throws Exception;
+
+	/**
+	 * Releases the cache after the run. The default implementation flushes
+	 * the cache.
+	 *
+	 * @param cache the cache
+	 * @throws Exception
+	 */
+	public void dispose(Cache<String, byte[]> cache) throws Exception {
+		cache.flush();
+	}
+
+}
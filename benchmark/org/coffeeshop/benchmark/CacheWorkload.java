@@ -0,0 +1,115 @@
+package org.coffeeshop.benchmark;
+
+import java.util.Random;
+
+import org.coffeeshop.cache.Cache;
+
+/**
+ * A mix of reads and writes on a cache with keys that follow a Zipf
+ * distribution. A read that misses inserts the value (the cache-aside
+ * pattern). Since the caches ignore the insertion of a key that is already
+ * present, a write removes the key first and then inserts it again.
+ *
+ * The keys and the operations are generated in advance for every thread,
+ * so that the generation is not measured.
+ */
+public class CacheWorkload extends Workload {
+
+	private static final int TRACE_LENGTH = 1 << 16;
+
+	private static final int TRACE_MASK = TRACE_LENGTH - 1;
+
+	private CacheFactory factory;
+
+	private double readRatio;
+
+	private int keyCount;
+
+	private double skew;
+
+	private byte[] value;
+
+	private Cache<String, byte[]> cache;
+
+	private String[] keys;
+
+	private int[][] traces;
+
+	private boolean[][] reads;
+
+	/**
+	 * Constructs a new workload.
+	 *
+	 * @param factory factory of the tested cache
+	 * @param readRatio ratio of the read operations
+	 * @param keyCount number of distinct keys
+	 * @param skew exponent of the Zipf distribution of the keys
+	 * @param value the inserted value
+	 */
+	public CacheWorkload(CacheFactory factory, double readRatio, int keyCount,
+			double skew, byte[] value) {
+		this.factory = factory;
+		this.readRatio = readRatio;
+		this.keyCount = keyCount;
+		this.skew = skew;
+		this.value = value;
+	}
+
+	public void setUp(int threads) throws Exception {
+
+		cache = factory.create();
+
+		keys = new String[keyCount];
+
+		for (int i = 0; i < keyCount; i++)
+			keys[i] = "key-" + i;
+
+		traces = new int[threads][];
+		reads = new boolean[threads][];
+
+		for (int t = 0; t < threads; t++) {
+
+			traces[t] = new Zipf(keyCount, skew, t).trace(TRACE_LENGTH);
+
+			Random random = new Random(-t);
+
+			reads[t] = new boolean[TRACE_LENGTH];
+
+			for (int i = 0; i < TRACE_LENGTH; i++)
+				reads[t][i] = random.nextDouble() < readRatio;
+
+		}
+
+	}
+
+	public void operation(int thread, int step) {
+
+		int i = step & TRACE_MASK;
+
+		String key = keys[traces[thread][i]];
+
+		if (reads[thread][i]) {
+
+			if (cache.query(key) == null)
+				cache.insert(key, value);
+
+		} else {
+
+			cache.remove(key);
+			cache.insert(key, value);
+
+		}
+
+	}
+
+	public void tearDown() throws Exception {
+
+		factory.dispose(cache);
+
+		cache = null;
+		traces = null;
+		reads = null;
+
+	}
+
+}
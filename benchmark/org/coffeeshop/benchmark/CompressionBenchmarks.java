@@ -0,0 +1,85 @@
+package org.coffeeshop.benchmark;
+
+import org.coffeeshop.cache.CompressionCodec;
+import org.coffeeshop.cache.DeflateCodec;
+import org.coffeeshop.cache.LZCodec;
+
+/**
+ * Compression ratio and speed of the codecs that can compress the disk
+ * tier of a data cache. The capacity gain is the factor by which the same
+ * disk space holds more data.
+ */
+public class CompressionBenchmarks implements Suite {
+
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	public void run(Benchmark benchmark) throws Exception {
+
+		String[] names = { "lz", "deflate/1", "deflate/6" };
+
+		CompressionCodec[] codecs = { new LZCodec(), new DeflateCodec(1), new DeflateCodec(6) };
+
+		boolean[] compressible = { true, false };
+
+		for (int i = 0; i < codecs.length; i++) {
+
+			for (boolean c : compressible) {
+
+				final CompressionCodec codec = codecs[i];
+				final byte[] data = Benchmark.payload(BLOCK_SIZE, c);
+				final byte[] compressed = codec.compress(data, 0, data.length);
+
+				if (benchmark.isEnabled("compression.capacityGain"))
+					benchmark.add(new Result("compression.capacityGain", (double) data.length / compressed.length,
+							Double.NaN, "x").parameter("codec", names[i]).parameter("compressible", c));
+
+				if (benchmark.isEnabled("compression.compress")) {
+
+					Result result = benchmark.getRunner().throughput("compression.compress", new Workload() {
+						public void operation(int thread, int step) {
+							try {
+								codec.compress(data, 0, data.length);
+							} catch (Exception e) {
+								throw new RuntimeException(e);
+							}
+						}
+					}, 1);
+
+					benchmark.add(megabytes(result).parameter("codec", names[i]).parameter("compressible", c));
+
+				}
+
+				if (benchmark.isEnabled("compression.decompress")) {
+
+					Result result = benchmark.getRunner().throughput("compression.decompress", new Workload() {
+						public void operation(int thread, int step) {
+							try {
+								codec.decompress(compressed, 0, compressed.length, data.length);
+							} catch (Exception e) {
+								throw new RuntimeException(e);
+							}
+						}
+					}, 1);
+
+					benchmark.add(megabytes(result).parameter("codec", names[i]).parameter("compressible", c));
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * Converts the number of compressed blocks per second to megabytes of
+	 * the original data per second.
+	 */
+	private static Result megabytes(Result result) {
+
+		double factor = BLOCK_SIZE / (1024.0 * 1024.0);
+
+		return new Result(result.getBenchmark(), result.getScore() * factor, result.getError() * factor, "MB/s");
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.coffeeshop.benchmark;
+
+import java.util.Random;
+
+import org.coffeeshop.cache.ClockPolicy;
+import org.coffeeshop.cache.EvictionPolicy;
+import org.coffeeshop.cache.FIFOPolicy;
+import org.coffeeshop.cache.LFUPolicy;
+import org.coffeeshop.cache.LRUPolicy;
+import org.coffeeshop.cache.ObjectCache;
+import org.coffeeshop.cache.SampledPolicy;
+import org.coffeeshop.cache.WindowTinyLFUPolicy;
+
+/**
+ * Hit rates of the eviction policies on synthetic traces. The traces are
+ * replayed on an {@link ObjectCache} in a single thread, a miss inserts the
+ * key.
+ */
+public class HitRateBenchmarks implements Suite {
+
+	private static final int CAPACITY = 1000;
+
+	private static final int KEYS = 100000;
+
+	private static final int LENGTH = 1000000;
+
+	private static final String[] POLICIES = { "LRU", "FIFO", "CLOCK", "LFU", "Sampled", "W-TinyLFU" };
+
+	public void run(Benchmark benchmark) throws Exception {
+
+		if (!benchmark.isEnabled("policy.hitRate"))
+			return;
+
+		String[] names = { "zipf", "zipfWithScans", "shiftingZipf" };
+
+		int[][] traces = { zipf(), zipfWithScans(), shiftingZipf() };
+
+		for (int t = 0; t < traces.length; t++) {
+
+			for (String policy : POLICIES) {
+
+				ObjectCache<Integer, Integer> cache = new ObjectCache<Integer, Integer>(CAPACITY, policy(policy));
+
+				for (int key : traces[t]) {
+
+					if (cache.query(key) == null)
+						cache.insert(key, key);
+
+				}
+
+				benchmark.add(new Result("policy.hitRate", cache.getStatistics().getHitRate() * 100, Double.NaN, "%")
+						.parameter("policy", policy).parameter("trace", names[t]));
+
+			}
+
+		}
+
+	}
+
+	private static EvictionPolicy<Integer> policy(String name) {
+
+		if (name.equals("LRU"))
+			return new LRUPolicy<Integer>();
+		if (name.equals("FIFO"))
+			return new FIFOPolicy<Integer>();
+		if (name.equals("CLOCK"))
+			return new ClockPolicy<Integer>();
+		if (name.equals("LFU"))
+			return new LFUPolicy<Integer>();
+		if (name.equals("Sampled"))
+			return new SampledPolicy<Integer>();
+
+		return new WindowTinyLFUPolicy<Integer>(CAPACITY);
+	}
+
+	/**
+	 * A stationary Zipf distribution.
+	 */
+	private static int[] zipf() {
+		return new Zipf(KEYS, 0.9, 1).trace(LENGTH);
+	}
+
+	/**
+	 * A Zipf distribution interrupted by sequential scans of keys that are
+	 * never accessed again.
+	 */
+	private static int[] zipfWithScans() {
+
+		Zipf zipf = new Zipf(KEYS, 0.9, 2);
+
+		int[] trace = new int[LENGTH];
+
+		int scanned = KEYS;
+
+		for (int i = 0; i < LENGTH;) {
+
+			for (int j = 0; j < 5000 && i < LENGTH; j++)
+				trace[i++] = zipf.next();
+
+			for (int j = 0; j < 2 * CAPACITY && i < LENGTH; j++)
+				trace[i++] = scanned++;
+
+		}
+
+		return trace;
+	}
+
+	/**
+	 * A Zipf distribution whose popular keys change every 100000 accesses.
+	 */
+	private static int[] shiftingZipf() {
+
+		Zipf zipf = new Zipf(KEYS, 0.9, 3);
+
+		Random random = new Random(3);
+
+		int[] trace = new int[LENGTH];
+
+		int offset = 0;
+
+		for (int i = 0; i < LENGTH; i++) {
+
+			if (i % 100000 == 0)
+				offset = random.nextInt(KEYS);
+
+			trace[i] = (zipf.next() + offset) % KEYS;
+
+		}
+
+		return trace;
+	}
+
+}
@@ -0,0 +1,323 @@
+package org.coffeeshop.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.coffeeshop.net.http.server.HttpRequest;
+import org.coffeeshop.net.http.server.HttpResponse;
+import org.coffeeshop.net.http.server.HttpServer;
+import org.coffeeshop.net.http.server.resource.Resource;
+import org.coffeeshop.settings.PropertiesSettings;
+
+/**
+ * Load test of the connection modes of the HTTP server. The clients send
+ * small requests over keep-alive connections while a number of idle
+ * connections is held open, which is where a thread per connection
+ * becomes expensive.
+ *
+ * <ul>
+ * <li><code>platform</code> - a platform thread for every connection (a
+ * pool that is large enough for all of them)</li>
+ * <li><code>pool</code> - the default bounded pool, the connections that do
+ * not fit are rejected</li>
+ * <li><code>virtual</code> - a virtual thread for every connection (skipped
+ * if the runtime does not support them)</li>
+ * <li><code>selector</code> - the selector engine</li>
+ * </ul>
+ */
+public class HttpBenchmarks implements Suite {
+
+	private static final int[] IDLE_CONNECTIONS = { 0, 1000 };
+
+	private static final byte[] BODY = Benchmark.payload(256, true);
+
+	private static final String[] MODES = { "platform", "pool", "virtual", "selector" };
+
+	/**
+	 * Sends requests to a server, each thread has a connection of its own
+	 * that is reopened when the server closes it.
+	 */
+	private static class HttpWorkload extends Workload {
+
+		private String mode;
+
+		private int idle;
+
+		private int port;
+
+		private HttpServer server;
+
+		private List<Socket> idleSockets = new ArrayList<Socket>();
+
+		private Socket[] sockets;
+
+		private InputStream[] inputs;
+
+		private AtomicLong successes = new AtomicLong(), failures = new AtomicLong();
+
+		private byte[] request;
+
+		public HttpWorkload(String mode, int idle) {
+			this.mode = mode;
+			this.idle = idle;
+		}
+
+		public boolean isSupported() {
+			return server == null || !mode.equals("virtual") || server.isVirtualThreads();
+		}
+
+		public void setUp(int threads) throws Exception {
+
+			ServerSocket probe = new ServerSocket(0);
+			port = probe.getLocalPort();
+			probe.close();
+
+			StringBuilder settings = new StringBuilder();
+
+			settings.append("httpd.connection.keepalivetimeout=60\n");
+			settings.append("httpd.connection.maxqueue=4096\n");
+
+			if (mode.equals("platform"))
+				settings.append("httpd.worker.threads=" + (idle + threads + 16) + "\n");
+			else if (mode.equals("virtual"))
+				settings.append("httpd.worker.virtual=true\n");
+			else if (mode.equals("selector"))
+				settings.append("httpd.connection.engine=selector\n");
+
+			server = new HttpServer(port, null, new PropertiesSettings(settings.toString()));
+
+			new Resource("hello", server.getRoot()) {
+				public void execute(HttpRequest request, HttpResponse response) throws Exception {
+					response.setHeader("content-length:", String.valueOf(BODY.length));
+					response.getOutputStream().write(BODY);
+				}
+			};
+
+			server.start();
+
+			if (!isSupported())
+				return;
+
+			// the server socket is opened by a thread of the server
+			Thread.sleep(200);
+
+			for (int i = 0; i < idle; i++)
+				idleSockets.add(new Socket("localhost", port));
+
+			sockets = new Socket[threads];
+			inputs = new InputStream[threads];
+
+			request = "GET /hello HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n".getBytes("ISO-8859-1");
+
+		}
+
+		public void operation(int thread, int step) {
+
+			if (sockets == null)
+				return;
+
+			try {
+
+				boolean success;
+
+				try {
+
+					success = request(thread);
+
+				} catch (IOException e) {
+
+					// the server may close a kept alive connection at any
+					// time, the request is repeated on a new one
+					close(thread);
+					success = request(thread);
+
+				}
+
+				if (success)
+					successes.incrementAndGet();
+				else
+					failures.incrementAndGet();
+
+			} catch (IOException e) {
+
+				failures.incrementAndGet();
+				close(thread);
+
+			}
+
+		}
+
+		private boolean request(int thread) throws IOException {
+
+			if (sockets[thread] == null) {
+				sockets[thread] = new Socket("localhost", port);
+				sockets[thread].setTcpNoDelay(true);
+				inputs[thread] = new BufferedInputStream(sockets[thread].getInputStream());
+			}
+
+			OutputStream out = sockets[thread].getOutputStream();
+			out.write(request);
+			out.flush();
+
+			return readResponse(thread);
+		}
+
+		/**
+		 * Reads a response, the connection is closed unless the server
+		 * keeps it alive.
+		 *
+		 * @return <code>true</code> if the status was 200
+		 */
+		private boolean readResponse(int thread) throws IOException {
+
+			InputStream in = inputs[thread];
+
+			String status = readLine(in);
+
+			if (status == null)
+				throw new IOException("Connection closed");
+
+			int length = -1;
+			boolean keepAlive = false;
+
+			String line;
+
+			while ((line = readLine(in)) != null && line.length() > 0) {
+
+				String header = line.toLowerCase();
+
+				if (header.startsWith("content-length:"))
+					length = Integer.parseInt(header.substring(15).trim());
+				else if (header.startsWith("connection:"))
+					keepAlive = header.indexOf("keep-alive") >= 0;
+
+			}
+
+			if (length < 0) {
+
+				// the body ends with the connection
+				while (in.read() >= 0)
+					;
+
+				keepAlive = false;
+
+			} else {
+
+				for (int i = 0; i < length; i++)
+					if (in.read() < 0)
+						throw new IOException("Response truncated");
+
+			}
+
+			if (!keepAlive)
+				close(thread);
+
+			return status.indexOf(" 200 ") > 0;
+		}
+
+		private void close(int thread) {
+
+			if (sockets[thread] == null)
+				return;
+
+			try {
+				sockets[thread].close();
+			} catch (IOException e) {
+			}
+
+			sockets[thread] = null;
+
+		}
+
+		public void tearDown() throws Exception {
+
+			if (sockets != null)
+				for (int i = 0; i < sockets.length; i++)
+					close(i);
+
+			for (Socket socket : idleSockets)
+				socket.close();
+
+			server.stop();
+
+			// let the server release the port
+			Thread.sleep(200);
+
+		}
+
+		public double getSuccessRate() {
+
+			long total = successes.get() + failures.get();
+
+			return total == 0 ? 0 : 100.0 * successes.get() / total;
+		}
+
+	}
+
+	public void run(Benchmark benchmark) throws Exception {
+
+		if (!benchmark.isEnabled("http.requests"))
+			return;
+
+		for (String mode : MODES) {
+
+			boolean supported = true;
+
+			for (int i = 0; i < IDLE_CONNECTIONS.length && supported; i++) {
+
+				int idle = IDLE_CONNECTIONS[i];
+
+				for (int threads : benchmark.getThreads()) {
+
+					HttpWorkload workload = new HttpWorkload(mode, idle);
+
+					Result result = benchmark.getRunner().throughput("http.requests", workload, threads);
+
+					supported = workload.isSupported();
+
+					if (!supported) {
+						System.out.println("http.requests: " + mode + " threads are not supported by this runtime");
+						break;
+					}
+
+					benchmark.add(result.parameter("mode", mode).parameter("idle", idle));
+
+					benchmark.add(new Result("http.success", workload.getSuccessRate(), Double.NaN, "%")
+							.parameter("threads", threads).parameter("mode", mode)
+							.parameter("idle", idle));
+
+				}
+
+			}
+
+		}
+
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+
+		StringBuilder line = new StringBuilder();
+
+		int c;
+
+		while ((c = in.read()) >= 0) {
+
+			if (c == '\n')
+				return line.toString();
+
+			if (c != '\r')
+				line.append((char) c);
+
+		}
+
+		return line.length() == 0 ? null : line.toString();
+	}
+
+}
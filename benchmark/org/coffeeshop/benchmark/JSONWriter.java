@@ -0,0 +1,122 @@
+package org.coffeeshop.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the benchmark results as JSON. The layout follows the one of the
+ * JMH tool, so the results can be processed by the same trend tracking
+ * scripts.
+ */
+public class JSONWriter {
+
+	private Writer out;
+
+	public JSONWriter(Writer out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes the results.
+	 *
+	 * @param environment properties of the environment that are stored
+	 *            with every result
+	 * @param results the results
+	 * @throws IOException
+	 */
+	public void write(Map<String, Object> environment, List<Result> results) throws IOException {
+
+		out.write("[\n");
+
+		for (Iterator<Result> it = results.iterator(); it.hasNext();) {
+
+			Result result = it.next();
+
+			out.write("  {\n");
+			out.write("    \"benchmark\": " + quote(result.getBenchmark()) + ",\n");
+
+			for (Map.Entry<String, Object> e : environment.entrySet())
+				out.write("    " + quote(e.getKey()) + ": " + value(e.getValue()) + ",\n");
+
+			out.write("    \"params\": {");
+
+			for (Iterator<Map.Entry<String, Object>> p = result.getParameters().entrySet().iterator(); p.hasNext();) {
+				Map.Entry<String, Object> e = p.next();
+				out.write(quote(e.getKey()) + ": " + quote(String.valueOf(e.getValue())));
+				if (p.hasNext())
+					out.write(", ");
+			}
+
+			out.write("},\n");
+			out.write("    \"primaryMetric\": {\n");
+			out.write("      \"score\": " + value(result.getScore()) + ",\n");
+			out.write("      \"scoreError\": " + value(result.getError()) + ",\n");
+			out.write("      \"scoreUnit\": " + quote(result.getUnit()) + "\n");
+			out.write("    }\n");
+			out.write(it.hasNext() ? "  },\n" : "  }\n");
+
+		}
+
+		out.write("]\n");
+		out.flush();
+
+	}
+
+	private static String value(Object value) {
+
+		if (value instanceof Double) {
+
+			double d = (Double) value;
+
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				return "null";
+
+		}
+
+		if (value instanceof Number || value instanceof Boolean)
+			return value.toString();
+
+		return quote(String.valueOf(value));
+	}
+
+	private static String quote(String s) {
+
+		StringBuilder builder = new StringBuilder(s.length() + 2);
+
+		builder.append('"');
+
+		for (int i = 0; i < s.length(); i++) {
+
+			char c = s.charAt(i);
+
+			switch (c) {
+			case '"':
+				builder.append("\\\"");
+				break;
+			case '\\':
+				builder.append("\\\\");
+				break;
+			case '\n':
+				builder.append("\\n");
+				break;
+			case '\t':
+				builder.append("\\t");
+				break;
+			default:
+				if (c < 0x20)
+					builder.append(String.format("\\u%04x", (int) c));
+				else
+					builder.append(c);
+			}
+
+		}
+
+		builder.append('"');
+
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,188 @@
+package org.coffeeshop.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.coffeeshop.cache.ByteArrayCache;
+import org.coffeeshop.cache.Cache;
+import org.coffeeshop.cache.ConcurrentObjectCache;
+import org.coffeeshop.cache.ObjectCache;
+import org.coffeeshop.cache.OffHeapStore;
+import org.coffeeshop.cache.WindowTinyLFUPolicy;
+
+/**
+ * Memory overhead of the caches and the time spent in the garbage
+ * collector with and without the off-heap tier.
+ */
+public class MemoryBenchmarks implements Suite {
+
+	private static final int ENTRIES = 200000;
+
+	private static final int PAYLOAD_SIZE = 64 * 1024;
+
+	private static final int PAYLOAD_KEYS = 2048;
+
+	private static final int CHURN_OPERATIONS = 50000;
+
+	public void run(Benchmark benchmark) throws Exception {
+
+		if (benchmark.isEnabled("memory.footprint"))
+			footprint(benchmark);
+
+		if (benchmark.isEnabled("memory.gc"))
+			garbageCollection(benchmark);
+
+	}
+
+	/**
+	 * Measures the heap occupied by the cache structures per entry. The
+	 * keys and the value are allocated before the measurement, so only the
+	 * cache itself is counted.
+	 */
+	private void footprint(Benchmark benchmark) {
+
+		String[] names = { "ObjectCache/LRU", "ObjectCache/W-TinyLFU", "ObjectCache/expiry", "ConcurrentObjectCache" };
+
+		Integer[] keys = new Integer[ENTRIES];
+
+		for (int i = 0; i < ENTRIES; i++)
+			keys[i] = i;
+
+		Object value = new Object();
+
+		for (String name : names) {
+
+			long before = usedMemory();
+
+			Cache<Integer, Object> cache;
+
+			if (name.equals("ObjectCache/LRU")) {
+				cache = new ObjectCache<Integer, Object>(ENTRIES);
+			} else if (name.equals("ObjectCache/W-TinyLFU")) {
+				cache = new ObjectCache<Integer, Object>(ENTRIES, new WindowTinyLFUPolicy<Integer>(ENTRIES));
+			} else if (name.equals("ObjectCache/expiry")) {
+				ObjectCache<Integer, Object> c = new ObjectCache<Integer, Object>(ENTRIES);
+				c.setExpireAfterAccess(3600000);
+				cache = c;
+			} else {
+				cache = new ConcurrentObjectCache<Integer, Object>(ENTRIES);
+			}
+
+			for (int i = 0; i < ENTRIES; i++)
+				cache.insert(keys[i], value);
+
+			long after = usedMemory();
+
+			benchmark.add(new Result("memory.footprint", (double) (after - before) / ENTRIES, Double.NaN, "B/entry")
+					.parameter("cache", name).parameter("entries", cache.size()));
+
+			cache.flush();
+
+		}
+
+	}
+
+	/**
+	 * Replaces the large values of a cache many times and measures the time
+	 * spent in the garbage collector, once with the values on the heap and
+	 * once with the values in the off-heap tier.
+	 */
+	private void garbageCollection(Benchmark benchmark) throws Exception {
+
+		long limit = (long) PAYLOAD_SIZE * PAYLOAD_KEYS;
+
+		for (int offHeap = 0; offHeap < 2; offHeap++) {
+
+			ByteArrayCache cache;
+
+			if (offHeap == 0) {
+				cache = new ByteArrayCache(limit, limit, null);
+			} else {
+				cache = new ByteArrayCache(limit / 64, limit, null);
+				cache.setDiskStore(new OffHeapStore(limit + limit / 4, null));
+			}
+
+			Zipf zipf = new Zipf(PAYLOAD_KEYS * 2, 0.9, 4);
+			Random random = new Random(4);
+
+			usedMemory();
+
+			long collections = collectionCount(), time = collectionTime();
+			long start = System.nanoTime();
+
+			for (int i = 0; i < CHURN_OPERATIONS; i++) {
+
+				String key = "key-" + zipf.next();
+
+				if (cache.query(key) != null && random.nextInt(4) != 0)
+					continue;
+
+				// a new value for every write, like freshly decoded data
+				cache.remove(key);
+				cache.insert(key, new byte[PAYLOAD_SIZE]);
+
+			}
+
+			long elapsed = System.nanoTime() - start;
+
+			String tier = offHeap == 0 ? "heap" : "offHeap";
+
+			benchmark.add(new Result("memory.gc.time", collectionTime() - time, Double.NaN, "ms")
+					.parameter("tier", tier).parameter("operations", CHURN_OPERATIONS));
+
+			benchmark.add(new Result("memory.gc.count", collectionCount() - collections, Double.NaN, "collections")
+					.parameter("tier", tier).parameter("operations", CHURN_OPERATIONS));
+
+			benchmark.add(new Result("memory.gc.throughput", CHURN_OPERATIONS * 1e9 / elapsed, Double.NaN, "ops/s")
+					.parameter("tier", tier).parameter("operations", CHURN_OPERATIONS));
+
+			cache.flush();
+
+			if (cache.getDiskStore() != null)
+				cache.getDiskStore().close();
+
+		}
+
+	}
+
+	private static long collectionCount() {
+
+		long count = 0;
+
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, bean.getCollectionCount());
+
+		return count;
+	}
+
+	private static long collectionTime() {
+
+		long time = 0;
+
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans())
+			time += Math.max(0, bean.getCollectionTime());
+
+		return time;
+	}
+
+	private static long usedMemory() {
+
+		Runtime runtime = Runtime.getRuntime();
+
+		for (int i = 0; i < 4; i++) {
+
+			System.gc();
+
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+		}
+
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,63 @@
+package org.coffeeshop.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of a single benchmark run.
+ */
+public class Result {
+
+	private String benchmark;
+
+	private Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+
+	private double score, error;
+
+	private String unit;
+
+	public Result(String benchmark, double score, double error, String unit) {
+		this.benchmark = benchmark;
+		this.score = score;
+		this.error = error;
+		this.unit = unit;
+	}
+
+	/**
+	 * Adds a parameter of the benchmark.
+	 *
+	 * @param name name of the parameter
+	 * @param value value of the parameter
+	 * @return this result
+	 */
+	public Result parameter(String name, Object value) {
+		parameters.put(name, value);
+		return this;
+	}
+
+	public String getBenchmark() {
+		return benchmark;
+	}
+
+	public Map<String, Object> getParameters() {
+		return parameters;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public double getError() {
+		return error;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	public String toString() {
+		return String.format("%-40s %-50s %16.3f +- %10.3f %s", benchmark,
+				parameters.toString(), score, error, unit);
+	}
+
+}
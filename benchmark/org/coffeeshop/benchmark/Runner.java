@@ -0,0 +1,172 @@
+package org.coffeeshop.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of a {@link Workload}. The workload is first run
+ * for a number of warmup iterations that are not measured, then for the
+ * measured iterations. The score is the mean number of operations per
+ * second and the error is the half-width of the 99% confidence interval.
+ */
+public class Runner {
+
+	private static class Flag {
+
+		private volatile boolean value = false;
+
+	}
+
+	private int warmupIterations = 2;
+
+	private int iterations = 5;
+
+	private long iterationTime = 1000;
+
+	public Runner() {
+	}
+
+	/**
+	 * Constructs a runner with custom settings.
+	 *
+	 * @param warmupIterations number of iterations that are not measured
+	 * @param iterations number of measured iterations
+	 * @param iterationTime duration of an iteration in milliseconds
+	 */
+	public Runner(int warmupIterations, int iterations, long iterationTime) {
+
+		if (warmupIterations < 0 || iterations < 1 || iterationTime < 1)
+			throw new IllegalArgumentException("Illegal runner settings");
+
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+		this.iterationTime = iterationTime;
+	}
+
+	public int getWarmupIterations() {
+		return warmupIterations;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Measures the throughput of the workload.
+	 *
+	 * @param name name of the benchmark
+	 * @param workload the workload
+	 * @param threads number of threads
+	 * @return the result
+	 * @throws Exception if the workload can not be prepared
+	 */
+	public Result throughput(String name, Workload workload, int threads) throws Exception {
+
+		workload.setUp(threads);
+
+		double[] scores = new double[iterations];
+
+		try {
+
+			for (int i = 0; i < warmupIterations; i++)
+				iteration(workload, threads);
+
+			for (int i = 0; i < iterations; i++)
+				scores[i] = iteration(workload, threads);
+
+		} finally {
+			workload.tearDown();
+		}
+
+		return new Result(name, mean(scores), error(scores), "ops/s").parameter("threads", threads);
+	}
+
+	/**
+	 * Runs a single iteration.
+	 *
+	 * @return number of operations per second
+	 */
+	private double iteration(final Workload workload, int threads) throws InterruptedException {
+
+		final long[] counts = new long[threads];
+		final CountDownLatch start = new CountDownLatch(1);
+		final Flag stop = new Flag();
+
+		Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+
+			final int thread = t;
+
+			workers[t] = new Thread("Benchmark worker " + t) {
+
+				public void run() {
+
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					int step = 0;
+
+					while (!stop.value)
+						workload.operation(thread, step++);
+
+					counts[thread] = step;
+
+				}
+
+			};
+
+			workers[t].start();
+
+		}
+
+		long begin = System.nanoTime();
+
+		start.countDown();
+
+		Thread.sleep(iterationTime);
+
+		stop.value = true;
+
+		for (Thread worker : workers)
+			worker.join();
+
+		long elapsed = System.nanoTime() - begin;
+
+		long total = 0;
+
+		for (long count : counts)
+			total += count;
+
+		return total * 1e9 / elapsed;
+	}
+
+	static double mean(double[] values) {
+
+		double sum = 0;
+
+		for (double v : values)
+			sum += v;
+
+		return sum / values.length;
+	}
+
+	static double error(double[] values) {
+
+		if (values.length < 2)
+			return Double.NaN;
+
+		double mean = mean(values), sum = 0;
+
+		for (double v : values)
+			sum += (v - mean) * (v - mean);
+
+		double deviation = Math.sqrt(sum / (values.length - 1));
+
+		// normal approximation of the 99% confidence interval
+		return 2.576 * deviation / Math.sqrt(values.length);
+	}
+
+}
@@ -0,0 +1,153 @@
+package org.coffeeshop.benchmark;
+
+import java.io.File;
+
+import org.coffeeshop.cache.ByteArrayCache;
+import org.coffeeshop.cache.Cache;
+import org.coffeeshop.cache.DeflateCodec;
+import org.coffeeshop.cache.DiskStore;
+import org.coffeeshop.cache.LZCodec;
+import org.coffeeshop.cache.OffHeapStore;
+import org.coffeeshop.cache.SegmentStore;
+import org.coffeeshop.io.TempDirectory;
+
+/**
+ * Throughput of {@link ByteArrayCache} when most of the data does not fit
+ * into memory and is spilled to the disk, with the different disk tiers.
+ */
+public class SpillBenchmarks implements Suite {
+
+	private static final int VALUE_SIZE = 16 * 1024;
+
+	private static final int KEYS = 8192;
+
+	private static final long MEMORY_LIMIT = 2L * 1024 * 1024;
+
+	private static final long TOTAL_LIMIT = 64L * 1024 * 1024;
+
+	private static final double SKEW = 0.9;
+
+	private static final double READ_RATIO = 0.9;
+
+	/**
+	 * Factory of a cache that spills to a temporary directory.
+	 */
+	private static abstract class SpillFactory extends CacheFactory {
+
+		protected TempDirectory directory;
+
+		protected DiskStore store;
+
+		public SpillFactory(String name) {
+			super(name);
+		}
+
+		public Cache<String, byte[]> create() throws Exception {
+
+			directory = new TempDirectory("benchmark");
+
+			ByteArrayCache cache = new ByteArrayCache(MEMORY_LIMIT, TOTAL_LIMIT, directory);
+
+			configure(cache);
+
+			return cache;
+		}
+
+		protected abstract void configure(ByteArrayCache cache) throws Exception;
+
+		public void dispose(Cache<String, byte[]> cache) throws Exception {
+
+			((ByteArrayCache) cache).setWriteBehind(0);
+
+			cache.flush();
+
+			if (store != null)
+				store.close();
+
+			store = null;
+
+			directory.clear();
+
+		}
+
+		protected File path() {
+			return new File(directory.getPath());
+		}
+
+	}
+
+	public void run(Benchmark benchmark) throws Exception {
+
+		if (!benchmark.isEnabled("spill.mixed"))
+			return;
+
+		SpillFactory[] caches = {
+
+			new SpillFactory("files") {
+				protected void configure(ByteArrayCache cache) {
+				}
+			},
+
+			new SpillFactory("files/writeBehind") {
+				protected void configure(ByteArrayCache cache) {
+					cache.setWriteBehind(MEMORY_LIMIT);
+				}
+			},
+
+			new SpillFactory("segments") {
+				protected void configure(ByteArrayCache cache) {
+					store = new SegmentStore(path(), 4 * 1024 * 1024);
+					cache.setDiskStore(store);
+				}
+			},
+
+			new SpillFactory("offHeap/segments") {
+				protected void configure(ByteArrayCache cache) {
+					store = new OffHeapStore(TOTAL_LIMIT / 4, new SegmentStore(path(), 4 * 1024 * 1024));
+					cache.setDiskStore(store);
+				}
+			},
+
+			new SpillFactory("segments/lz") {
+				protected void configure(ByteArrayCache cache) {
+					store = new SegmentStore(path(), 4 * 1024 * 1024);
+					cache.setDiskStore(store);
+					cache.setCompression(new LZCodec());
+				}
+			},
+
+			new SpillFactory("segments/deflate") {
+				protected void configure(ByteArrayCache cache) {
+					store = new SegmentStore(path(), 4 * 1024 * 1024);
+					cache.setDiskStore(store);
+					cache.setCompression(new DeflateCodec());
+				}
+			}
+
+		};
+
+		boolean[] compressible = { false, true };
+
+		for (boolean c : compressible) {
+
+			byte[] value = Benchmark.payload(VALUE_SIZE, c);
+
+			for (SpillFactory cache : caches) {
+
+				for (int threads : benchmark.getThreads()) {
+
+					Workload workload = new CacheWorkload(cache, READ_RATIO, KEYS, SKEW, value);
+
+					benchmark.add(benchmark.getRunner().throughput("spill.mixed", workload, threads)
+							.parameter("tier", cache.getName())
+							.parameter("compressible", c));
+
+				}
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,17 @@
+package org.coffeeshop.benchmark;
+
+/**
+ * A group of related benchmarks.
+ */
+public interface Suite {
+
+	/**
+	 * Runs the benchmarks of the suite that are enabled and adds their
+	 * results.
+	 *
+	 * @param benchmark the benchmark settings and results
+	 * @throws Exception
+	 */
+	public void run(Benchmark benchmark) throws Exception;
+
+}
@@ -0,0 +1,35 @@
+package org.coffeeshop.benchmark;
+
+/**
+ * A workload that is executed by a number of threads at the same time. The
+ * throughput of the workload is measured by the {@link Runner}.
+ */
+public abstract class Workload {
+
+	/**
+	 * Prepares the workload before the first iteration.
+	 *
+	 * @param threads number of threads that will execute the workload
+	 * @throws Exception
+	 */
+	public void setUp(int threads) throws Exception {
+	}
+
+	/**
+	 * Executes a single operation. The method is called concurrently by
+	 * all the threads.
+	 *
+	 * @param thread index of the calling thread
+	 * @param step number of the operation within the thread
+	 */
+	public abstract void operation(int thread, int step);
+
+	/**
+	 * Releases the resources of the workload after the last iteration.
+	 *
+	 * @throws Exception
+	 */
+	public void tearDown() throws Exception {
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.coffeeshop.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates the ranks of the items with a Zipf distribution, so that a few
+ * keys are very popular and most of the keys are rarely accessed. The
+ * cumulative distribution is computed in advance and the ranks are found by
+ * a binary search.
+ */
+public class Zipf {
+
+	private double[] cumulative;
+
+	private Random random;
+
+	/**
+	 * Constructs a new generator.
+	 *
+	 * @param items number of items
+	 * @param exponent skew of the distribution (0 is uniform)
+	 * @param seed seed of the random generator
+	 */
+	public Zipf(int items, double exponent, long seed) {
+
+		if (items < 1)
+			throw new IllegalArgumentException("At least one item is required");
+
+		cumulative = new double[items];
+
+		double sum = 0;
+
+		for (int i = 0; i < items; i++) {
+			sum += 1 / Math.pow(i + 1, exponent);
+			cumulative[i] = sum;
+		}
+
+		for (int i = 0; i < items; i++)
+			cumulative[i] /= sum;
+
+		random = new Random(seed);
+
+	}
+
+	/**
+	 * Returns the rank of the next item (0 is the most popular item).
+	 *
+	 * @return the rank
+	 */
+	public int next() {
+
+		double u = random.nextDouble();
+
+		int low = 0, high = cumulative.length - 1;
+
+		while (low < high) {
+
+			int middle = (low + high) >>> 1;
+
+			if (cumulative[middle] < u)
+				low = middle + 1;
+			else
+				high = middle;
+
+		}
+
+		return low;
+	}
+
+	/**
+	 * Generates a trace of ranks.
+	 *
+	 * @param length length of the trace
+	 * @return the trace
+	 */
+	public int[] trace(int length) {
+
+		int[] trace = new int[length];
+
+		for (int i = 0; i < length; i++)
+			trace[i] = next();
+
+		return trace;
+	}
+
+}
@@ -1,43 +1,496 @@
 package org.coffeeshop.cache;
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public abstract class AbstractCache<K, V> implements Cache<K, V> {
+import org.coffeeshop.log.AbstractLogger;
 
-	private Vector<CacheListener> listeners = new Vector<CacheListener>();
+/**
+ * Base class of the caches that manages the listeners and collects the
+ * statistics. The statistics are kept in striped counters, so recording
+ * them is cheap even when many threads access the cache.
+ *
+ * By default the listeners are notified synchronously in the thread that
+ * has changed the cache, usually while it holds the lock of the cache, so
+ * they should return quickly and must not wait for other threads that use
+ * the cache. In the asynchronous mode the changes are posted into a ring
+ * buffer and a dispatcher thread delivers them in batches, so a slow
+ * listener does not stall the cache. The dispatcher only holds a weak
+ * reference to the cache, its thread ends once the cache is garbage
+ * collected or the asynchronous mode is switched off.
+ *
+ * In both modes an exception thrown by a listener does not prevent the
+ * delivery to the other listeners and does not reach the code that has
+ * changed the cache; it is reported to the logger set by
+ * {@link #setLogger(AbstractLogger)}.
+ *
+ * The bulk operations of {@link BulkCache} are implemented by calling the
+ * single-key methods, but the events they cause are collected and
+ * delivered as a single batch. The subclasses override them to acquire
+ * their lock once per batch.
+ */
+public abstract class AbstractCache<K, V> implements BulkCache<K, V> {
+
+	private static final int DEFAULT_EVENT_BUFFER = 4096;
+
+	private CopyOnWriteArrayList<CacheListener> listeners = new CopyOnWriteArrayList<CacheListener>();
+
+	private CopyOnWriteArrayList<CacheEventListener<K>> eventListeners = new CopyOnWriteArrayList<CacheEventListener<K>>();
+
+	private volatile EventDispatcher<K> dispatcher = null;
+
+	private volatile AbstractLogger logger = null;
+
+	/**
+	 * Events collected during a bulk operation.
+	 */
+	private static class Batch<K> {
+
+		private int depth = 0;
+
+		private ArrayList<CacheEvent<K>> events = new ArrayList<CacheEvent<K>>();
+
+		private boolean update = false;
+
+	}
+
+	private ThreadLocal<Batch<K>> batches = new ThreadLocal<Batch<K>>();
+
+	private StripedCounter hits = new StripedCounter(), misses = new StripedCounter(),
+		loadSuccesses = new StripedCounter(), loadFailures = new StripedCounter(),
+		loadTime = new StripedCounter();
+
+	private StripedCounter[] removals;
+
+	{
+		removals = new StripedCounter[RemovalCause.values().length];
+
+		for (int i = 0; i < removals.length; i++)
+			removals[i] = new StripedCounter();
+	}
+
+	/**
+	 * Replaces the object of a key that is in the cache. The caches of this
+	 * package override the method, so that the key does not disappear from
+	 * the cache in between and the old object is neither counted as removed
+	 * nor reported by a removal event; the listeners are notified as if the
+	 * object was inserted.
+	 *
+	 * The default implementation is meant for the subclasses that do not
+	 * support replacing, it is not atomic: the old object is removed and the
+	 * new one inserted.
+	 *
+	 * @param key the key of the object
+	 * @param object the new object
+	 * @return <code>true</code> if the object was replaced,
+	 * <code>false</code> if the key is not in the cache
+	 */
+	public boolean replace(K key, V object) {
+
+		if (key == null || !contains(key))
+			return false;
+
+		remove(key);
+		insert(key, object);
+
+		return true;
+	}
 
 	public void addCacheListener(CacheListener l) {
 
-		synchronized (listeners) {
+		listeners.add(l);
+
+	}
+
+	public void removeCacheListener(CacheListener l) {
+
+		listeners.remove(l);
+
+	}
+
+	public void addCacheEventListener(CacheEventListener<K> l) {
+
+		eventListeners.add(l);
+
+	}
+
+	public void removeCacheEventListener(CacheEventListener<K> l) {
+
+		eventListeners.remove(l);
+
+	}
+
+	/**
+	 * Switches between the synchronous and the asynchronous delivery of the
+	 * events.
+	 *
+	 * @param asynchronous <code>true</code> to deliver the events from a
+	 * dispatcher thread
+	 */
+	public void setAsynchronousEvents(boolean asynchronous) {
+		setAsynchronousEvents(asynchronous, DEFAULT_EVENT_BUFFER);
+	}
+
+	/**
+	 * Switches between the synchronous and the asynchronous delivery of the
+	 * events. In the asynchronous mode the events that do not fit into the
+	 * buffer are dropped.
+	 *
+	 * @param asynchronous <code>true</code> to deliver the events from a
+	 * dispatcher thread
+	 * @param bufferSize number of events that can wait for the delivery
+	 */
+	public synchronized void setAsynchronousEvents(boolean asynchronous, int bufferSize) {
 
-			listeners.add(l);
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("Buffer size must be positive");
 
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+			dispatcher = null;
 		}
 
+		if (asynchronous)
+			dispatcher = new EventDispatcher<K>(this, bufferSize);
+
 	}
 
-	public void removeCacheListener(CacheListener l) {
+	/**
+	 * Sets the logger that receives the exceptions thrown by the listeners,
+	 * usually the logger of the application. Without a logger the exceptions
+	 * are printed to the standard error stream.
+	 *
+	 * @param logger the logger or <code>null</code>
+	 */
+	public void setLogger(AbstractLogger logger) {
+		this.logger = logger;
+	}
+
+	public boolean isAsynchronousEvents() {
+		return dispatcher != null;
+	}
+
+	/**
+	 * Returns the number of events that were dropped because the buffer of
+	 * the dispatcher was full.
+	 *
+	 * @return number of dropped events
+	 */
+	public long getDroppedEventCount() {
+		EventDispatcher<K> d = dispatcher;
+		return d == null ? 0 : d.getDroppedCount();
+	}
+
+	/**
+	 * Returns a snapshot of the statistics of the cache.
+	 *
+	 * @return the statistics
+	 */
+	public CacheStatistics getStatistics() {
+
+		long[] evictions = new long[removals.length];
+
+		for (int i = 0; i < removals.length; i++)
+			evictions[i] = removals[i].sum();
+
+		return new CacheStatistics(hits.sum(), misses.sum(), loadSuccesses.sum(),
+				loadFailures.sum(), loadTime.sum(), evictions, size(), getWeight());
+
+	}
+
+	/**
+	 * Returns the weight of the cache that is reported in the statistics.
+	 * The default implementation returns the number of entries.
+	 *
+	 * @return the weight
+	 */
+	public long getWeight() {
+		return size();
+	}
+
+	protected void recordHit() {
+		hits.increment();
+	}
+
+	protected void recordMiss() {
+		misses.increment();
+	}
+
+	/**
+	 * Records a load of a value.
+	 *
+	 * @param nanos duration of the load
+	 * @param success <code>true</code> if the value was loaded
+	 */
+	protected void recordLoad(long nanos, boolean success) {
+
+		if (success)
+			loadSuccesses.increment();
+		else
+			loadFailures.increment();
+
+		loadTime.add(nanos);
+
+	}
+
+	/**
+	 * Records the removal of entries.
+	 *
+	 * @param cause the cause of the removal
+	 * @param count number of removed entries
+	 */
+	protected void recordRemoval(RemovalCause cause, int count) {
+		removals[cause.ordinal()].add(count);
+	}
+
+	public Map<K, V> queryAll(Collection<? extends K> keys) {
+
+		Map<K, V> result = new LinkedHashMap<K, V>();
+
+		for (K key : keys) {
+
+			V object = query(key);
+
+			if (object != null)
+				result.put(key, object);
+
+		}
+
+		return result;
+	}
+
+	public void insertAll(Map<? extends K, ? extends V> objects) {
 
-		synchronized (listeners) {
+		beginBatch();
 
-			listeners.remove(l);
+		try {
+
+			for (Map.Entry<? extends K, ? extends V> e : objects.entrySet())
+				insert(e.getKey(), e.getValue());
+
+		} finally {
+			endBatch();
+		}
+
+	}
+
+	public void removeAll(Collection<? extends K> keys) {
+
+		beginBatch();
+
+		try {
+
+			for (K key : keys)
+				remove(key);
+
+		} finally {
+			endBatch();
+		}
+
+	}
+
+	/**
+	 * Starts collecting the events of the current thread. The events are
+	 * delivered together when the matching {@link #endBatch()} is called.
+	 * The batches can be nested.
+	 */
+	protected void beginBatch() {
+
+		Batch<K> batch = batches.get();
+
+		if (batch == null) {
+			batch = new Batch<K>();
+			batches.set(batch);
+		}
+
+		batch.depth++;
+
+	}
+
+	/**
+	 * Ends the batch started by {@link #beginBatch()} and delivers the
+	 * collected events. Should be called after the lock of the cache is
+	 * released.
+	 */
+	protected void endBatch() {
+
+		Batch<K> batch = batches.get();
+
+		if (batch == null)
+			throw new IllegalStateException("No batch was started");
+
+		if (--batch.depth > 0)
+			return;
+
+		batches.remove();
+
+		if (!batch.events.isEmpty()) {
+
+			EventDispatcher<K> d = dispatcher;
+
+			if (d != null) {
+				for (CacheEvent<K> event : batch.events)
+					d.post(event);
+			} else {
+				deliver(batch.events, false);
+			}
 
 		}
 
+		if (batch.update)
+			fireCacheUpdate();
+
 	}
 
+	/**
+	 * Notifies the untyped listeners that the cache has changed.
+	 */
 	protected void fireCacheUpdate() {
 
-		synchronized (listeners) {
+		if (listeners.isEmpty())
+			return;
 
-			for (CacheListener l : listeners) {
+		Batch<K> batch = batches.get();
+
+		if (batch != null) {
+			batch.update = true;
+			return;
+		}
+
+		EventDispatcher<K> d = dispatcher;
 
+		if (d != null) {
+			d.postUpdate();
+			return;
+		}
+
+		for (CacheListener l : listeners) {
+			try {
 				l.cacheUpdated(this);
+			} catch (RuntimeException e) {
+				report(e);
+			}
+		}
 
+	}
+
+	/**
+	 * Tells if any typed listener is registered, so that the subclasses can
+	 * avoid creating the keys of the events that nobody receives.
+	 *
+	 * @return <code>true</code> if there is a typed listener
+	 */
+	protected boolean hasEventListeners() {
+		return !eventListeners.isEmpty();
+	}
+
+	/**
+	 * Notifies the typed listeners about an insertion.
+	 *
+	 * @param key the key of the inserted entry
+	 */
+	protected void fireInserted(K key) {
+
+		if (!eventListeners.isEmpty())
+			fireCacheEvent(new CacheEvent<K>(CacheEvent.Type.INSERTED, key, null));
+
+	}
+
+	/**
+	 * Notifies the typed listeners about a removal.
+	 *
+	 * @param key the key of the removed entry
+	 * @param cause the reason of the removal
+	 */
+	protected void fireRemoved(K key, RemovalCause cause) {
+
+		if (!eventListeners.isEmpty())
+			fireCacheEvent(new CacheEvent<K>(cause.isEviction() ? CacheEvent.Type.EVICTED
+					: CacheEvent.Type.REMOVED, key, cause));
+
+	}
+
+	/**
+	 * Notifies the typed listeners that the cache was flushed.
+	 */
+	protected void fireFlushed() {
+
+		if (!eventListeners.isEmpty())
+			fireCacheEvent(new CacheEvent<K>(CacheEvent.Type.FLUSHED, null, RemovalCause.EXPLICIT));
+
+	}
+
+	private void fireCacheEvent(CacheEvent<K> event) {
+
+		Batch<K> batch = batches.get();
+
+		if (batch != null) {
+			batch.events.add(event);
+			return;
+		}
+
+		EventDispatcher<K> d = dispatcher;
+
+		if (d != null)
+			d.post(event);
+		else
+			deliver(Collections.singletonList(event), false);
+
+	}
+
+	/**
+	 * Delivers a batch of events to the listeners.
+	 *
+	 * @param events the events
+	 * @param update <code>true</code> if the untyped listeners should be
+	 * notified as well
+	 */
+	void deliver(List<CacheEvent<K>> events, boolean update) {
+
+		if (!events.isEmpty()) {
+
+			// the dispatcher reuses its list, the listeners get a copy
+			List<CacheEvent<K>> batch = events.size() == 1 ? Collections.singletonList(events.get(0))
+					: Collections.unmodifiableList(new ArrayList<CacheEvent<K>>(events));
+
+			for (CacheEventListener<K> l : eventListeners) {
+				try {
+					l.cacheChanged(this, batch);
+				} catch (RuntimeException e) {
+					report(e);
+				}
 			}
 
 		}
 
+		if (update) {
+
+			for (CacheListener l : listeners) {
+				try {
+					l.cacheUpdated(this);
+				} catch (RuntimeException e) {
+					report(e);
+				}
+			}
+
+		}
+
+	}
+
+	private void report(RuntimeException e) {
+
+		AbstractLogger l = logger;
+
+		if (l != null)
+			l.report(e);
+		else
+			e.printStackTrace();
+
 	}
 
 }
@@ -0,0 +1,231 @@
+package org.coffeeshop.cache;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An intrusive doubly-linked list of cache entries. The links are stored in
+ * the entries themselves, so insertion, removal and moving an entry to the
+ * tail of the list are all constant time operations. The head of the list is
+ * the least recently moved entry.
+ *
+ * An entry can be a member of a single list at the time.
+ *
+ * @param <E> type of the entries
+ * @see CacheEntry
+ */
+public class AccessList<E extends CacheEntry<?>> implements Iterable<E> {
+
+	private CacheEntry<Object> head = null, tail = null;
+
+	private int size = 0;
+
+	/**
+	 * Appends the entry to the tail of the list.
+	 *
+	 * @param entry the entry to append
+	 * @throws IllegalStateException if the entry is already in a list
+	 */
+	public void add(E entry) {
+
+		CacheEntry<Object> e = links(entry);
+
+		if (e.owner != null)
+			throw new IllegalStateException("Entry is already a member of a list");
+
+		e.owner = this;
+		e.previous = tail;
+		e.next = null;
+
+		if (tail == null)
+			head = e;
+		else
+			tail.next = e;
+
+		tail = e;
+		size++;
+
+	}
+
+	/**
+	 * Removes the entry from the list. Nothing is done if the entry is not a
+	 * member of this list.
+	 *
+	 * @param entry the entry to remove
+	 * @return <code>true</code> if the entry was removed
+	 */
+	public boolean remove(E entry) {
+		return unlink(entry);
+	}
+
+	private boolean unlink(CacheEntry<?> entry) {
+
+		CacheEntry<Object> e = links(entry);
+
+		if (e.owner != this)
+			return false;
+
+		if (e.previous == null)
+			head = e.next;
+		else
+			e.previous.next = e.next;
+
+		if (e.next == null)
+			tail = e.previous;
+		else
+			e.next.previous = e.previous;
+
+		e.previous = null;
+		e.next = null;
+		e.owner = null;
+		size--;
+
+		return true;
+	}
+
+	/**
+	 * Moves the entry to the tail of the list (or appends it if it is not in
+	 * the list yet).
+	 *
+	 * @param entry the entry to move
+	 */
+	public void moveToTail(E entry) {
+
+		if (entry == tail)
+			return;
+
+		remove(entry);
+		add(entry);
+
+	}
+
+	/**
+	 * Removes the entry from whichever list it is a member of.
+	 *
+	 * @param entry the entry to remove
+	 * @return <code>true</code> if the entry was removed
+	 */
+	static boolean detach(CacheEntry<?> entry) {
+
+		if (entry.owner == null)
+			return false;
+
+		return entry.owner.unlink(entry);
+	}
+
+	/**
+	 * Returns the entry at the head of the list without removing it.
+	 *
+	 * @return the head entry or <code>null</code> if the list is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E peek() {
+		return (E) head;
+	}
+
+	/**
+	 * Removes and returns the entry at the head of the list.
+	 *
+	 * @return the head entry or <code>null</code> if the list is empty
+	 */
+	public E poll() {
+
+		E e = peek();
+
+		if (e != null)
+			remove(e);
+
+		return e;
+	}
+
+	/**
+	 * Checks if the entry is a member of this list.
+	 *
+	 * @param entry the entry
+	 * @return <code>true</code> if the entry is in this list
+	 */
+	public boolean contains(E entry) {
+		return entry != null && entry.owner == this;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all the entries from the list.
+	 */
+	public void clear() {
+
+		CacheEntry<Object> e = head;
+
+		while (e != null) {
+			CacheEntry<Object> n = e.next;
+			e.previous = null;
+			e.next = null;
+			e.owner = null;
+			e = n;
+		}
+
+		head = null;
+		tail = null;
+		size = 0;
+
+	}
+
+	/**
+	 * Returns an iterator that traverses the list from the head to the tail.
+	 * The list must not be modified while iterating (apart from the
+	 * {@link Iterator#remove()} method).
+	 */
+	public Iterator<E> iterator() {
+
+		return new Iterator<E>() {
+
+			private CacheEntry<?> current = head, last = null;
+
+			public boolean hasNext() {
+				return current != null;
+			}
+
+			@SuppressWarnings("unchecked")
+			public E next() {
+
+				if (current == null)
+					throw new NoSuchElementException();
+
+				last = current;
+				current = current.next;
+
+				return (E) last;
+			}
+
+			@SuppressWarnings("unchecked")
+			public void remove() {
+
+				if (last == null)
+					throw new IllegalStateException();
+
+				AccessList.this.remove((E) last);
+				last = null;
+
+			}
+
+		};
+
+	}
+
+	/**
+	 * Gives access to the links of an entry, the links do not depend on the
+	 * type of the key.
+	 */
+	@SuppressWarnings("unchecked")
+	private static CacheEntry<Object> links(CacheEntry<?> entry) {
+		return (CacheEntry<Object>) entry;
+	}
+
+}
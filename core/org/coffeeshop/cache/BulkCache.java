@@ -0,0 +1,39 @@
+package org.coffeeshop.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A cache that can process many keys in a single operation. A bulk
+ * operation acquires the lock of the cache once per batch (instead of once
+ * per key), runs a single eviction pass and notifies the listeners with a
+ * single batch of events.
+ *
+ * @see AbstractCache
+ */
+public interface BulkCache<K, V> extends Cache<K, V> {
+
+	/**
+	 * Searches for the objects with the given keys.
+	 *
+	 * @param keys the keys to search with
+	 * @return the objects that were found, mapped by their keys
+	 */
+	public Map<K, V> queryAll(Collection<? extends K> keys);
+
+	/**
+	 * Inserts the objects to the cache. The objects whose key is already in
+	 * the cache are ignored.
+	 *
+	 * @param objects the objects mapped by their keys
+	 */
+	public void insertAll(Map<? extends K, ? extends V> objects);
+
+	/**
+	 * Removes the objects with the given keys from the cache.
+	 *
+	 * @param keys the keys of the removed objects
+	 */
+	public void removeAll(Collection<? extends K> keys);
+
+}
@@ -1,5 +1,6 @@
 package org.coffeeshop.cache;
 
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -14,6 +15,12 @@ public class ByteArrayCache extends DataCache<String, byte[]> {
 		super(memoryLimit, totalLimit, tempDir);
 	}
 
+	public ByteArrayCache(long memoryLimit, long totalLimit,
+			TempDirectory tempDir, EvictionPolicy<String> policy,
+			EvictionPolicy<String> memoryPolicy) throws IOException {
+		super(memoryLimit, totalLimit, tempDir, policy, memoryPolicy);
+	}
+
 	@Override
 	protected long getDataLength(byte[] object) {
 		if (object == null) return 0;
@@ -24,10 +31,13 @@ public class ByteArrayCache extends DataCache<String, byte[]> {
 	protected byte[] readData(File file, long length) throws IOException {
 		byte[] data = new byte[(int)length];
 		
-		FileInputStream r = new FileInputStream(file);
-		r.read(data);
+		DataInputStream r = new DataInputStream(new FileInputStream(file));
 
-		r.close();
+		try {
+			r.readFully(data);
+		} finally {
+			r.close();
+		}
 		
 		return data;
 	}
@@ -42,4 +52,24 @@ public class ByteArrayCache extends DataCache<String, byte[]> {
 		w.close();
 	}
 
+	@Override
+	protected byte[] encodeKey(String key) throws IOException {
+		return key.getBytes("UTF-8");
+	}
+
+	@Override
+	protected String decodeKey(byte[] key) throws IOException {
+		return new String(key, "UTF-8");
+	}
+
+	@Override
+	protected byte[] encodeData(byte[] data) {
+		return data;
+	}
+
+	@Override
+	protected byte[] decodeData(byte[] data) {
+		return data;
+	}
+
 }
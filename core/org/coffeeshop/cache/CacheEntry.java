@@ -0,0 +1,29 @@
+package org.coffeeshop.cache;
+
+/**
+ * Base class of the cache entries. Every entry carries its own links so
+ * that it can be placed into an {@link AccessList} without allocating any
+ * additional list nodes.
+ *
+ * @param <K> type of the key
+ * @see AccessList
+ */
+public abstract class CacheEntry<K> {
+
+	CacheEntry<K> previous, next;
+
+	AccessList<?> owner = null;
+
+	/**
+	 * Policy specific counter (access count, reference bit, position)
+	 */
+	int counter = 0;
+
+	/**
+	 * Returns the key of the entry
+	 *
+	 * @return the key
+	 */
+	public abstract K getKey();
+
+}
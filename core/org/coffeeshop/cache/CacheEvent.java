@@ -0,0 +1,74 @@
+package org.coffeeshop.cache;
+
+/**
+ * Describes a single change of a cache.
+ *
+ * @param <K> type of the keys
+ * @see CacheEventListener
+ */
+public class CacheEvent<K> {
+
+	public static enum Type {
+
+		/**
+		 * An entry was inserted or its object was replaced.
+		 */
+		INSERTED,
+
+		/**
+		 * An entry was removed by the user.
+		 */
+		REMOVED,
+
+		/**
+		 * An entry was removed by the cache, the cause tells why.
+		 */
+		EVICTED,
+
+		/**
+		 * All the entries were removed, the event has no key.
+		 */
+		FLUSHED
+
+	}
+
+	private Type type;
+
+	private K key;
+
+	private RemovalCause cause;
+
+	public CacheEvent(Type type, K key, RemovalCause cause) {
+		this.type = type;
+		this.key = key;
+		this.cause = cause;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the key of the changed entry.
+	 *
+	 * @return the key or <code>null</code> for {@link Type#FLUSHED}
+	 */
+	public K getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the reason of the removal.
+	 *
+	 * @return the cause or <code>null</code> for {@link Type#INSERTED}
+	 */
+	public RemovalCause getCause() {
+		return cause;
+	}
+
+	@Override
+	public String toString() {
+		return type + (key == null ? "" : " " + key) + (cause == null ? "" : " (" + cause + ")");
+	}
+
+}
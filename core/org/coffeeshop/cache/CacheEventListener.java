@@ -0,0 +1,23 @@
+package org.coffeeshop.cache;
+
+import java.util.List;
+
+/**
+ * Receives the typed events of a cache. Depending on the dispatch mode of
+ * the cache the events are delivered one at a time in the thread that has
+ * changed the cache, or in batches by a dispatcher thread.
+ *
+ * @param <K> type of the keys
+ * @see AbstractCache#setAsynchronousEvents(boolean)
+ */
+public interface CacheEventListener<K> {
+
+	/**
+	 * Called after the cache has changed.
+	 *
+	 * @param cache the cache
+	 * @param events the changes in the order they have happened
+	 */
+	public void cacheChanged(Cache<K, ?> cache, List<CacheEvent<K>> events);
+
+}
@@ -0,0 +1,47 @@
+package org.coffeeshop.cache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the values that are missing in a cache.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ * @see LoadingCache
+ */
+public abstract class CacheLoader<K, V> {
+
+	/**
+	 * Loads the value for the key.
+	 *
+	 * @param key the key
+	 * @return the value or <code>null</code> if there is no value for the key
+	 * @throws Exception if the value can not be loaded
+	 */
+	public abstract V load(K key) throws Exception;
+
+	/**
+	 * Loads the values for several keys at once. The default implementation
+	 * loads the values one by one, the loaders that can fetch several values
+	 * more efficiently should override it.
+	 *
+	 * @param keys the keys
+	 * @return the values, the keys without a value may be missing from the map
+	 * @throws Exception if the values can not be loaded
+	 */
+	public Map<K, V> loadAll(Collection<? extends K> keys) throws Exception {
+
+		Map<K, V> values = new HashMap<K, V>();
+
+		for (K key : keys) {
+			V value = load(key);
+			if (value != null)
+				values.put(key, value);
+		}
+
+		return values;
+	}
+
+}
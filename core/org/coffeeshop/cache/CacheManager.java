@@ -0,0 +1,320 @@
+package org.coffeeshop.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Shares a global memory budget and a disk store among several
+ * {@link DataCache} objects. Each registered cache receives a part of the
+ * budget as its memory limit and spills the rest of its data to the shared
+ * store.
+ *
+ * The budget is initially split evenly. Every {@link #rebalance()} compares
+ * the hit value of the caches since the previous rebalance, that is the
+ * number of queries answered from memory per byte of the memory limit, and
+ * moves a step of the budget from the cache with the lowest value to the
+ * cache with the highest value. Only a cache that had to go to the disk (or
+ * missed) can receive more memory and no cache is left with less than a
+ * minimal share. The rebalancing can be done periodically by a background
+ * thread, see {@link #setRebalanceInterval(long)}.
+ */
+public class CacheManager {
+
+	private static final int STEP_FRACTION = 20;
+
+	private static final int MINIMUM_FRACTION = 4;
+
+	/**
+	 * A registered cache together with its counters at the time of the
+	 * previous rebalance.
+	 */
+	private static class Member {
+
+		private DataCache<?, ?> cache;
+
+		private long allocation;
+
+		private long memoryHits, requests;
+
+		private double value;
+
+		private boolean starving;
+
+		public Member(DataCache<?, ?> cache) {
+			this.cache = cache;
+			sample();
+		}
+
+		/**
+		 * Computes the hit value since the previous sample and starts a new
+		 * sampling period.
+		 */
+		public void sample() {
+
+			CacheStatistics statistics = cache.getStatistics();
+
+			long hits = cache.getMemoryHitCount();
+			long total = statistics.getRequestCount();
+
+			long intervalHits = hits - memoryHits;
+			long intervalRequests = total - requests;
+
+			value = allocation > 0 ? (double) intervalHits / allocation : 0;
+			starving = intervalRequests > intervalHits;
+
+			memoryHits = hits;
+			requests = total;
+
+		}
+
+	}
+
+	private class Rebalancer extends Thread {
+
+		private volatile boolean running = true;
+
+		private long interval;
+
+		public Rebalancer(long interval) {
+			super("Cache manager");
+			setDaemon(true);
+			this.interval = interval;
+		}
+
+		public void run() {
+
+			while (running) {
+
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {
+					break;
+				}
+
+				if (running)
+					rebalance();
+
+			}
+
+		}
+
+	}
+
+	private long budget;
+
+	private DiskStore store;
+
+	private ArrayList<Member> members = new ArrayList<Member>();
+
+	private Rebalancer rebalancer = null;
+
+	/**
+	 * Constructs a new manager.
+	 *
+	 * @param budget memory shared by all the registered caches
+	 * @param store store shared by all the registered caches or
+	 *            <code>null</code> if the caches should keep their own second
+	 *            tier
+	 */
+	public CacheManager(long budget, DiskStore store) {
+
+		if (budget < 1)
+			throw new IllegalArgumentException("Budget must be positive");
+
+		// the records of a persistent store would be restored to every cache
+		if (store instanceof PersistentStore)
+			throw new IllegalArgumentException("Persistent store can not be shared");
+
+		this.budget = budget;
+		this.store = store;
+
+	}
+
+	/**
+	 * Adds a cache to the manager. The cache receives the shared disk store
+	 * and the budget is split evenly among all the caches again.
+	 *
+	 * @param cache the cache
+	 * @throws IllegalStateException if the cache is not empty and the disk
+	 *             store has to be set
+	 */
+	public synchronized void register(DataCache<?, ?> cache) {
+
+		for (Member member : members)
+			if (member.cache == cache)
+				return;
+
+		if (store != null)
+			cache.setDiskStore(store);
+
+		members.add(new Member(cache));
+
+		distribute();
+
+	}
+
+	/**
+	 * Removes a cache from the manager. The cache keeps its current memory
+	 * limit and the disk store, its share of the budget is split among the
+	 * remaining caches.
+	 *
+	 * @param cache the cache
+	 */
+	public synchronized void unregister(DataCache<?, ?> cache) {
+
+		for (int i = 0; i < members.size(); i++) {
+
+			if (members.get(i).cache != cache)
+				continue;
+
+			members.remove(i);
+
+			distribute();
+
+			return;
+
+		}
+
+	}
+
+	/**
+	 * Moves a step of the budget from the cache with the lowest hit value
+	 * to the cache with the highest hit value.
+	 */
+	public synchronized void rebalance() {
+
+		if (members.size() < 2)
+			return;
+
+		for (Member member : members)
+			member.sample();
+
+		Member donor = null, receiver = null;
+
+		long minimum = minimumShare();
+
+		for (Member member : members) {
+
+			if (member.starving && (receiver == null || member.value > receiver.value))
+				receiver = member;
+
+			if (member.allocation > minimum && (donor == null || member.value < donor.value))
+				donor = member;
+
+		}
+
+		if (donor == null || receiver == null || donor == receiver
+				|| donor.value >= receiver.value)
+			return;
+
+		long step = Math.min(budget / STEP_FRACTION, donor.allocation - minimum);
+
+		if (step <= 0)
+			return;
+
+		// the memory is released before it is given to the other cache
+		donor.allocation -= step;
+		donor.cache.setMemoryLimit(donor.allocation);
+
+		receiver.allocation += step;
+		receiver.cache.setMemoryLimit(receiver.allocation);
+
+	}
+
+	/**
+	 * Starts or stops the periodic rebalancing.
+	 *
+	 * @param interval time between two rebalances in milliseconds or 0 to
+	 *            stop the rebalancing
+	 */
+	public synchronized void setRebalanceInterval(long interval) {
+
+		if (interval < 0)
+			throw new IllegalArgumentException("Interval must not be negative");
+
+		if (rebalancer != null) {
+			rebalancer.running = false;
+			rebalancer.interrupt();
+			rebalancer = null;
+		}
+
+		if (interval > 0) {
+			rebalancer = new Rebalancer(interval);
+			rebalancer.start();
+		}
+
+	}
+
+	/**
+	 * Returns the part of the budget that is assigned to the cache.
+	 *
+	 * @param cache the cache
+	 * @return memory limit of the cache or -1 if the cache is not registered
+	 */
+	public synchronized long getAllocation(DataCache<?, ?> cache) {
+
+		for (Member member : members)
+			if (member.cache == cache)
+				return member.allocation;
+
+		return -1;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public DiskStore getDiskStore() {
+		return store;
+	}
+
+	/**
+	 * Stops the rebalancing, flushes all the registered caches and closes
+	 * the shared disk store.
+	 *
+	 * @throws IOException if the store can not be closed
+	 */
+	public synchronized void close() throws IOException {
+
+		setRebalanceInterval(0);
+
+		for (Member member : members)
+			member.cache.flush();
+
+		members.clear();
+
+		if (store != null)
+			store.close();
+
+	}
+
+	private void distribute() {
+
+		if (members.isEmpty())
+			return;
+
+		long share = budget / members.size();
+
+		// the caches that shrink go first, so that the budget is never
+		// exceeded
+		for (Member member : members) {
+			if (member.allocation > share) {
+				member.allocation = share;
+				member.cache.setMemoryLimit(share);
+			}
+		}
+
+		for (Member member : members) {
+			if (member.allocation != share) {
+				member.allocation = share;
+				member.cache.setMemoryLimit(share);
+			}
+		}
+
+	}
+
+	private long minimumShare() {
+		return budget / (MINIMUM_FRACTION * members.size());
+	}
+
+}
@@ -0,0 +1,90 @@
+package org.coffeeshop.cache;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the statistics of a cache through JMX.
+ *
+ * @see AbstractCache#getStatistics()
+ */
+public class CacheMonitor implements CacheMonitorMBean {
+
+	private AbstractCache<?, ?> cache;
+
+	public CacheMonitor(AbstractCache<?, ?> cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Registers a monitor for the cache with the platform MBean server.
+	 *
+	 * @param cache the cache
+	 * @param name name of the cache, used in the object name
+	 * @return the object name under which the monitor was registered
+	 * @throws JMException if the monitor can not be registered
+	 */
+	public static ObjectName register(AbstractCache<?, ?> cache, String name) throws JMException {
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		ObjectName objectName = new ObjectName("org.coffeeshop.cache:type=Cache,name="
+				+ ObjectName.quote(name));
+
+		server.registerMBean(new CacheMonitor(cache), objectName);
+
+		return objectName;
+	}
+
+	/**
+	 * Removes the monitor from the platform MBean server.
+	 *
+	 * @param objectName the name returned by {@link #register(AbstractCache, String)}
+	 * @throws JMException if the monitor can not be removed
+	 */
+	public static void unregister(ObjectName objectName) throws JMException {
+
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+
+	}
+
+	public long getHitCount() {
+		return cache.getStatistics().getHitCount();
+	}
+
+	public long getMissCount() {
+		return cache.getStatistics().getMissCount();
+	}
+
+	public double getHitRate() {
+		return cache.getStatistics().getHitRate();
+	}
+
+	public long getLoadCount() {
+		return cache.getStatistics().getLoadCount();
+	}
+
+	public long getLoadFailureCount() {
+		return cache.getStatistics().getLoadFailureCount();
+	}
+
+	public double getAverageLoadPenalty() {
+		return cache.getStatistics().getAverageLoadPenalty();
+	}
+
+	public long getEvictionCount() {
+		return cache.getStatistics().getEvictionCount();
+	}
+
+	public long getSize() {
+		return cache.size();
+	}
+
+	public long getWeight() {
+		return cache.getWeight();
+	}
+
+}
@@ -0,0 +1,26 @@
+package org.coffeeshop.cache;
+
+/**
+ * Management interface of {@link CacheMonitor}.
+ */
+public interface CacheMonitorMBean {
+
+	public long getHitCount();
+
+	public long getMissCount();
+
+	public double getHitRate();
+
+	public long getLoadCount();
+
+	public long getLoadFailureCount();
+
+	public double getAverageLoadPenalty();
+
+	public long getEvictionCount();
+
+	public long getSize();
+
+	public long getWeight();
+
+}
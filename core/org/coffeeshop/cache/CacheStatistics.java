@@ -0,0 +1,142 @@
+package org.coffeeshop.cache;
+
+/**
+ * An immutable snapshot of the statistics of a cache.
+ *
+ * @see AbstractCache#getStatistics()
+ */
+public class CacheStatistics {
+
+	private long hitCount, missCount, loadSuccessCount, loadFailureCount,
+			totalLoadTime, size, weight;
+
+	private long[] evictions;
+
+	CacheStatistics(long hitCount, long missCount, long loadSuccessCount,
+			long loadFailureCount, long totalLoadTime, long[] evictions,
+			long size, long weight) {
+
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.loadSuccessCount = loadSuccessCount;
+		this.loadFailureCount = loadFailureCount;
+		this.totalLoadTime = totalLoadTime;
+		this.evictions = evictions;
+		this.size = size;
+		this.weight = weight;
+
+	}
+
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Returns the number of lookups.
+	 *
+	 * @return the sum of hits and misses
+	 */
+	public long getRequestCount() {
+		return hitCount + missCount;
+	}
+
+	/**
+	 * Returns the ratio of the lookups that have found the entry.
+	 *
+	 * @return hit rate or 1 if there were no lookups
+	 */
+	public double getHitRate() {
+		long requests = getRequestCount();
+		return requests == 0 ? 1 : (double) hitCount / requests;
+	}
+
+	public long getLoadSuccessCount() {
+		return loadSuccessCount;
+	}
+
+	public long getLoadFailureCount() {
+		return loadFailureCount;
+	}
+
+	public long getLoadCount() {
+		return loadSuccessCount + loadFailureCount;
+	}
+
+	/**
+	 * Returns the total time spent loading the values.
+	 *
+	 * @return time in nanoseconds
+	 */
+	public long getTotalLoadTime() {
+		return totalLoadTime;
+	}
+
+	/**
+	 * Returns the average time of a load.
+	 *
+	 * @return time in nanoseconds or zero if there were no loads
+	 */
+	public double getAverageLoadPenalty() {
+		long loads = getLoadCount();
+		return loads == 0 ? 0 : (double) totalLoadTime / loads;
+	}
+
+	/**
+	 * Returns the number of entries that were removed for the given cause.
+	 *
+	 * @param cause the cause
+	 * @return number of removals
+	 */
+	public long getRemovalCount(RemovalCause cause) {
+		return evictions[cause.ordinal()];
+	}
+
+	/**
+	 * Returns the number of entries removed automatically by the cache.
+	 *
+	 * @return number of evictions
+	 */
+	public long getEvictionCount() {
+
+		long count = 0;
+
+		for (RemovalCause cause : RemovalCause.values())
+			if (cause.isEviction())
+				count += evictions[cause.ordinal()];
+
+		return count;
+	}
+
+	/**
+	 * Returns the number of entries in the cache when the snapshot was taken.
+	 *
+	 * @return number of entries
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the weight of the cache when the snapshot was taken. The
+	 * meaning of the weight depends on the cache, usually it is the number
+	 * of bytes or the number of entries.
+	 *
+	 * @return the weight
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	@Override
+	public String toString() {
+		return "hits: " + hitCount + ", misses: " + missCount + ", hit rate: "
+				+ getHitRate() + ", loads: " + getLoadCount() + ", load failures: "
+				+ loadFailureCount + ", evictions: " + getEvictionCount()
+				+ ", size: " + size + ", weight: " + weight;
+	}
+
+}
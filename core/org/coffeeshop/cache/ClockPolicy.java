@@ -0,0 +1,50 @@
+package org.coffeeshop.cache;
+
+/**
+ * CLOCK (second chance) eviction policy. A hit only sets the reference bit
+ * of the entry, so it is cheaper than {@link LRUPolicy}. When looking for a
+ * victim, the entries with the bit set get a second chance: the bit is
+ * cleared and the entry is moved behind the hand.
+ *
+ * @param <K> type of the keys
+ */
+public class ClockPolicy<K> implements EvictionPolicy<K> {
+
+	private AccessList<CacheEntry<K>> clock = new AccessList<CacheEntry<K>>();
+
+	public void inserted(CacheEntry<K> entry) {
+		entry.counter = 0;
+		clock.add(entry);
+	}
+
+	public void accessed(CacheEntry<K> entry) {
+		entry.counter = 1;
+	}
+
+	public void removed(CacheEntry<K> entry) {
+		clock.remove(entry);
+	}
+
+	public CacheEntry<K> victim() {
+
+		// after a full turn all the bits are cleared
+		for (int i = 0; i <= clock.size(); i++) {
+
+			CacheEntry<K> entry = clock.peek();
+
+			if (entry == null || entry.counter == 0)
+				return entry;
+
+			entry.counter = 0;
+			clock.moveToTail(entry);
+
+		}
+
+		return clock.peek();
+	}
+
+	public void clear() {
+		clock.clear();
+	}
+
+}
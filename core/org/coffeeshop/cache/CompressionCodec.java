@@ -0,0 +1,38 @@
+package org.coffeeshop.cache;
+
+import java.io.IOException;
+
+/**
+ * A compression algorithm for the data that a {@link DataCache} writes to
+ * the disk.
+ *
+ * @see DataCache#setCompression(CompressionCodec)
+ * @see DeflateCodec
+ * @see LZCodec
+ */
+public interface CompressionCodec {
+
+	/**
+	 * Compresses the data.
+	 *
+	 * @param data the data
+	 * @param offset offset of the data in the array
+	 * @param length length of the data
+	 * @return compressed data
+	 * @throws IOException if the data can not be compressed
+	 */
+	public byte[] compress(byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Decompresses the data.
+	 *
+	 * @param data compressed data
+	 * @param offset offset of the compressed data in the array
+	 * @param length length of the compressed data
+	 * @param originalLength length of the data before the compression
+	 * @return the data
+	 * @throws IOException if the compressed data is corrupted
+	 */
+	public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException;
+
+}
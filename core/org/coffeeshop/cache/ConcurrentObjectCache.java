@@ -0,0 +1,590 @@
+package org.coffeeshop.cache;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConcurrentObjectCache is a thread-safe counterpart of {@link ObjectCache}
+ * that is intended for caches that are accessed by many threads at the same
+ * time.
+ *
+ * The cache is split into a number of segments, each of them with its own
+ * lock, hash map, access list and a share of the total capacity. Lookups
+ * never take a lock: they read a concurrent hash map and record the access
+ * into a small per-segment buffer. The buffer is replayed onto the access
+ * list by whichever thread manages to obtain the segment lock, either when
+ * the buffer fills up or on the next write. Eviction is therefore least
+ * recently used per segment and only approximately so for the cache as a
+ * whole.
+ *
+ * @see ObjectCache
+ */
+public class ConcurrentObjectCache<K, V> extends AbstractCache<K, V> {
+
+	private static final int DEFAULT_CONCURRENCY = 16;
+
+	private static final int READ_BUFFER_SIZE = 64;
+
+	private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+	private static final int DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+	private class Node extends CacheEntry<K> {
+
+		private final K key;
+
+		private final V object;
+
+		public Node(K key, V object) {
+			this.key = key;
+			this.object = object;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getObject() {
+			return object;
+		}
+
+	}
+
+	private class Segment extends ReentrantLock {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ConcurrentHashMap<K, Node> container;
+
+		private final AccessList<Node> orderedAccess = new AccessList<Node>();
+
+		private final AtomicReferenceArray<Node> readBuffer = new AtomicReferenceArray<Node>(
+				READ_BUFFER_SIZE);
+
+		private final AtomicInteger readCounter = new AtomicInteger();
+
+		private final int limit;
+
+		public Segment(int limit) {
+			this.limit = limit;
+			this.container = new ConcurrentHashMap<K, Node>(Math.min(limit, 1024));
+		}
+
+		public V query(K key) {
+
+			Node node = container.get(key);
+
+			if (node == null) {
+				recordMiss();
+				return null;
+			}
+
+			recordHit();
+
+			int index = readCounter.getAndIncrement() & READ_BUFFER_MASK;
+
+			readBuffer.set(index, node);
+
+			if ((index & (DRAIN_THRESHOLD - 1)) == DRAIN_THRESHOLD - 1
+					&& tryLock()) {
+				try {
+					drainReads();
+				} finally {
+					unlock();
+				}
+			}
+
+			return node.getObject();
+		}
+
+		public boolean insert(K key, V object) {
+
+			lock();
+
+			try {
+
+				drainReads();
+
+				if (!put(key, object))
+					return false;
+
+				evict();
+
+				return true;
+
+			} finally {
+				unlock();
+			}
+
+		}
+
+		/**
+		 * Swaps the node of the key, the readers see either the old or the
+		 * new object.
+		 *
+		 * @return <code>false</code> if the key is not in the segment
+		 */
+		public boolean replace(K key, V object) {
+
+			lock();
+
+			try {
+
+				drainReads();
+
+				Node old = container.get(key);
+
+				if (old == null)
+					return false;
+
+				Node node = new Node(key, object);
+
+				container.put(key, node);
+				orderedAccess.remove(old);
+				orderedAccess.add(node);
+
+				fireInserted(key);
+
+				return true;
+
+			} finally {
+				unlock();
+			}
+
+		}
+
+		/**
+		 * Inserts the objects with a single eviction pass.
+		 *
+		 * @return <code>true</code> if any object was inserted
+		 */
+		public boolean insertAll(List<Map.Entry<? extends K, ? extends V>> objects) {
+
+			lock();
+
+			try {
+
+				drainReads();
+
+				boolean changed = false;
+
+				for (Map.Entry<? extends K, ? extends V> e : objects)
+					changed |= put(e.getKey(), e.getValue());
+
+				evict();
+
+				return changed;
+
+			} finally {
+				unlock();
+			}
+
+		}
+
+		/**
+		 * Removes the objects while holding the lock only once.
+		 *
+		 * @return <code>true</code> if any object was removed
+		 */
+		public boolean removeAll(List<K> keys) {
+
+			lock();
+
+			try {
+
+				boolean changed = false;
+
+				for (K key : keys)
+					changed |= remove(key) != null;
+
+				return changed;
+
+			} finally {
+				unlock();
+			}
+
+		}
+
+		/**
+		 * Adds the object without evicting. Must be called while holding the
+		 * segment lock.
+		 */
+		private boolean put(K key, V object) {
+
+			// prevent duplicates
+			if (container.containsKey(key))
+				return false;
+
+			Node node = new Node(key, object);
+
+			container.put(key, node);
+			orderedAccess.add(node);
+
+			fireInserted(key);
+
+			return true;
+		}
+
+		/**
+		 * Removes the least recently used objects until the segment is
+		 * within its limit. Must be called while holding the segment lock.
+		 */
+		private void evict() {
+
+			while (container.size() > limit) {
+
+				Node eldest = orderedAccess.poll();
+
+				if (eldest == null)
+					break;
+
+				container.remove(eldest.getKey());
+				recordRemoval(RemovalCause.SIZE, 1);
+				fireRemoved(eldest.getKey(), RemovalCause.SIZE);
+
+			}
+
+		}
+
+		public Node remove(K key) {
+
+			lock();
+
+			try {
+
+				drainReads();
+
+				Node node = container.remove(key);
+
+				if (node != null) {
+					orderedAccess.remove(node);
+					recordRemoval(RemovalCause.EXPLICIT, 1);
+					fireRemoved(key, RemovalCause.EXPLICIT);
+				}
+
+				return node;
+
+			} finally {
+				unlock();
+			}
+
+		}
+
+		public void flush() {
+
+			lock();
+
+			try {
+
+				for (int i = 0; i < READ_BUFFER_SIZE; i++)
+					readBuffer.set(i, null);
+
+				recordRemoval(RemovalCause.EXPLICIT, container.size());
+
+				container.clear();
+				orderedAccess.clear();
+
+			} finally {
+				unlock();
+			}
+
+		}
+
+		/**
+		 * Replays the recorded reads onto the access list. Must be called
+		 * while holding the segment lock.
+		 */
+		private void drainReads() {
+
+			for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+
+				Node node = readBuffer.getAndSet(i, null);
+
+				// the entry may have been removed after it was read
+				if (node != null && orderedAccess.contains(node))
+					orderedAccess.moveToTail(node);
+
+			}
+
+		}
+
+	}
+
+	private final Segment[] segments;
+
+	private final int segmentShift;
+
+	private final int limit;
+
+	/**
+	 * Constructs a new cache with the default concurrency level.
+	 *
+	 * @param objectLimit maximum number of objects in the cache
+	 */
+	public ConcurrentObjectCache(int objectLimit) {
+		this(objectLimit, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param objectLimit maximum number of objects in the cache
+	 * @param concurrencyLevel estimated number of threads that modify the
+	 * cache at the same time, rounded up to a power of two to obtain the
+	 * number of segments (but at most the object limit)
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentObjectCache(int objectLimit, int concurrencyLevel) {
+
+		if (objectLimit < 1)
+			throw new IllegalArgumentException("Object limit must be positive");
+
+		if (concurrencyLevel < 1)
+			throw new IllegalArgumentException("Concurrency level must be positive");
+
+		int count = 1, shift = 0;
+
+		// segments should not be smaller than a single object
+		while (count < concurrencyLevel && count * 2 <= objectLimit) {
+			count <<= 1;
+			shift++;
+		}
+
+		this.limit = objectLimit;
+		this.segmentShift = 32 - shift;
+		this.segments = (Segment[]) Array.newInstance(
+				Segment.class, count);
+
+		// the remainder is spread over the first segments, so that the
+		// limits of the segments add up to the limit of the cache
+		int share = objectLimit / count, remainder = objectLimit % count;
+
+		for (int i = 0; i < count; i++)
+			segments[i] = new Segment(i < remainder ? share + 1 : share);
+
+	}
+
+	private Segment segmentFor(Object key) {
+		return segments[indexFor(key)];
+	}
+
+	private int indexFor(Object key) {
+
+		if (segments.length == 1)
+			return 0;
+
+		// spread the hash bits so that poor hash functions still use all segments
+		int h = key.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		h ^= (h >>> 7) ^ (h >>> 4);
+		h *= 0x9E3779B9;
+
+		return h >>> segmentShift;
+
+	}
+
+	/**
+	 * Searches for the object by its key. The method does not block.
+	 *
+	 * @param key
+	 *            the key to search with
+	 * @return the object or <code>null</code> if no object is found
+	 */
+	public V query(K key) {
+
+		if (key == null)
+			return null;
+
+		return segmentFor(key).query(key);
+	}
+
+	/**
+	 * Inserts an object to the cache. If the same (with same key) object
+	 * already exists, nothing is done.
+	 *
+	 * @param key
+	 *            a key that is used to identify the object
+	 * @param o
+	 *            the object itself
+	 */
+	public void insert(K key, V o) {
+
+		if (key == null)
+			return;
+
+		if (segmentFor(key).insert(key, o))
+			fireCacheUpdate();
+
+	}
+
+	/**
+	 * Replaces the object of a key that is in the cache. The method only
+	 * locks the segment of the key, the lookups do not block.
+	 *
+	 * @param key
+	 *            the key of the object
+	 * @param o
+	 *            the new object
+	 * @return <code>true</code> if the object was replaced
+	 */
+	@Override
+	public boolean replace(K key, V o) {
+
+		if (key == null)
+			return false;
+
+		if (!segmentFor(key).replace(key, o))
+			return false;
+
+		fireCacheUpdate();
+
+		return true;
+	}
+
+	/**
+	 * Inserts the objects to the cache. The objects are grouped by their
+	 * segments, so the lock of each segment is acquired once.
+	 *
+	 * @param objects the objects mapped by their keys
+	 */
+	@Override
+	public void insertAll(Map<? extends K, ? extends V> objects) {
+
+		List<Map.Entry<? extends K, ? extends V>>[] groups = group(objects.size());
+
+		for (Map.Entry<? extends K, ? extends V> e : objects.entrySet()) {
+
+			if (e.getKey() != null)
+				groups[indexFor(e.getKey())].add(e);
+
+		}
+
+		boolean changed = false;
+
+		beginBatch();
+
+		try {
+
+			for (int i = 0; i < segments.length; i++) {
+
+				if (!groups[i].isEmpty())
+					changed |= segments[i].insertAll(groups[i]);
+
+			}
+
+		} finally {
+			endBatch();
+		}
+
+		if (changed)
+			fireCacheUpdate();
+
+	}
+
+	/**
+	 * Removes the objects from the cache. The keys are grouped by their
+	 * segments, so the lock of each segment is acquired once.
+	 *
+	 * @param keys the keys of the removed objects
+	 */
+	@Override
+	public void removeAll(Collection<? extends K> keys) {
+
+		List<K>[] groups = group(keys.size());
+
+		for (K key : keys) {
+
+			if (key != null)
+				groups[indexFor(key)].add(key);
+
+		}
+
+		boolean changed = false;
+
+		beginBatch();
+
+		try {
+
+			for (int i = 0; i < segments.length; i++) {
+
+				if (!groups[i].isEmpty())
+					changed |= segments[i].removeAll(groups[i]);
+
+			}
+
+		} finally {
+			endBatch();
+		}
+
+		if (changed)
+			fireCacheUpdate();
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> List<T>[] group(int size) {
+
+		List<T>[] groups = new List[segments.length];
+
+		for (int i = 0; i < groups.length; i++)
+			groups[i] = new ArrayList<T>(size / groups.length + 1);
+
+		return groups;
+	}
+
+	public boolean contains(K key) {
+
+		if (key == null)
+			return false;
+
+		return segmentFor(key).container.containsKey(key);
+	}
+
+	public V remove(K key) {
+
+		if (key == null)
+			return null;
+
+		Node node = segmentFor(key).remove(key);
+
+		if (node == null)
+			return null;
+
+		fireCacheUpdate();
+
+		return node.getObject();
+	}
+
+	public void flush() {
+
+		for (Segment s : segments)
+			s.flush();
+
+		fireFlushed();
+
+		fireCacheUpdate();
+
+	}
+
+	public int size() {
+
+		int size = 0;
+
+		for (Segment s : segments)
+			size += s.container.size();
+
+		return size;
+	}
+
+	public int capacity() {
+		return limit;
+	}
+
+}
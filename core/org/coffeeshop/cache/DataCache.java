@@ -1,9 +1,17 @@
 package org.coffeeshop.cache;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.PriorityQueue;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.coffeeshop.io.TempDirectory;
 
@@ -11,7 +19,28 @@ import org.coffeeshop.io.TempDirectory;
  * DataCache provides a caching mechanism for retrieval operations that would
  * otherwise require some time to complete. The resources are identified by a
  * string key that is usually an URL of the resource.
- * 
+ *
+ * The cache has two tiers: the data is kept in memory until the memory limit
+ * is reached, then it is spilled to a temporary directory until the total
+ * limit is reached. The choice of the entries that are spilled and removed
+ * is delegated to two {@link EvictionPolicy} objects, by default both are
+ * {@link LRUPolicy}.
+ *
+ * By default every spilled entry is written to its own file. A
+ * {@link DiskStore} can be set instead, in that case the data is converted
+ * to bytes with {@link #encodeData(Object)} and {@link #decodeData(byte[])}.
+ * An {@link OffHeapStore} in front of a {@link SegmentStore} keeps the
+ * spilled data outside of the Java heap before it reaches the disk.
+ *
+ * The spilling can be moved to a background thread with
+ * {@link #setWriteBehind(long)}, so that an insertion does not have to
+ * wait until the data of other entries is written. The written data can be
+ * compressed with a {@link CompressionCodec}, see
+ * {@link #setCompression(CompressionCodec)}.
+ *
+ * Several caches can share a memory budget and a disk store through a
+ * {@link CacheManager}.
+ *
  * @author lukacu
  */
 public abstract class DataCache<K, V> extends AbstractCache<K, V> {
@@ -19,41 +48,78 @@ public abstract class DataCache<K, V> extends AbstractCache<K, V> {
 	/**
 	 * Maximum capacity of the cache
 	 */
-	private long memoryLimit, totalLimit, totalUsage = 0, memoryUsage = 0;
+	private long memoryLimit, totalLimit, requestedTotalLimit, totalUsage = 0, memoryUsage = 0;
 
-	private PriorityQueue<DataWrapper> orderedAccess;
+	private long memoryHits = 0;
 
-	private PriorityQueue<DataWrapper> orderedAccessMemory;
-	
-	private TreeMap<K, DataWrapper> orderedContainer;
+	private EvictionPolicy<K> policy;
+
+	private EvictionPolicy<K> memoryPolicy;
+
+	private HashMap<K, DataWrapper> orderedContainer;
 
 	private TempDirectory tempDir;
-	
+
+	private DiskStore diskStore = null;
+
+	private static final int MIN_COMPRESSIBLE = 64;
+
+	private static final int COMPRESSION_SAMPLE = 4096;
+
+	private static final int KEY_MARKER = 0x44434b01;
+
+	private static final int KEY_PREFIX = 12;
+
+	private SpillWriter writer = null;
+
+	private long maxPendingBytes = 0, pendingBytes = 0;
+
+	private volatile CompressionCodec codec = null;
+
+	private AtomicLong uncompressedBytes = new AtomicLong(), compressedBytes = new AtomicLong();
+
+	/**
+	 * Location of the data on the disk, either a file or a record in the
+	 * disk store.
+	 */
+	private static class Location {
+
+		private File file = null;
+
+		private long id = -1;
+
+		private long length = -1;
+
+	}
+
 	/**
-	 * Internal wrapper of the objects that records the time
-	 * 
+	 * Internal wrapper of the data that tracks its location
+	 *
 	 * @author lukacu
 	 * @see ObjectCache
 	 */
-	private class DataWrapper implements Comparable<DataWrapper> {
-
-		private long timestamp;
+	private class DataWrapper extends CacheEntry<K> {
 
 		private V data;
 
 		private long length = 0;
-		
+
 		private K key;
 
-		private File fileHandle = null;
-		
+		private Location location = null;
+
+		private MemoryEntry memory = new MemoryEntry(this);
+
+		private boolean inMemory = true;
+
+		private boolean pending = false;
+
+		private long charged = 0;
+
 		/**
-		 * Construct a new wrapper for the data. The wrapper stores the key,
-		 * the data and the time of the last access to the data.
-		 * 
-		 * The constructor sets the timestamp of the last access to the time of
-		 * object construction.
-		 * 
+		 * Construct a new wrapper for the data. The wrapper stores the key
+		 * and the data.
+		 *
 		 * @param key
 		 *            key of the object
 		 * @param o
@@ -62,33 +128,33 @@ public abstract class DataCache<K, V> extends AbstractCache<K, V> {
 		public DataWrapper(K key, V o) {
 			data = o;
 			this.key = key;
-			timestamp = System.currentTimeMillis();
 			length = getDataLength(data);
 		}
 
-		public long getTimestamp() {
-			
-			return timestamp;
-			
-		}
-		
 		/**
-		 * 
-		 * @param o
-		 * @return
-		 * 
-		 * @see Comparable#compareTo(T)
+		 * Construct a wrapper for data that is already in the disk store.
+		 *
+		 * @param key
+		 *            key of the object
+		 * @param length
+		 *            length of the data
+		 * @param storeId
+		 *            identifier of the record in the store
+		 * @param storedLength
+		 *            length of the record in the store
 		 */
-		public int compareTo(DataWrapper o) {
-			DataWrapper ow = (DataWrapper) o;
-
-			return ow.getTimestamp() < getTimestamp() ? 1
-					: (ow.getTimestamp() > getTimestamp() ? -1 : 0);
+		public DataWrapper(K key, long length, long storeId, long storedLength) {
+			this.key = key;
+			this.length = length;
+			this.location = new Location();
+			this.location.id = storeId;
+			this.location.length = storedLength;
+			inMemory = false;
 		}
 
 		/**
 		 * Returns the object that is wrapped in this wrapper
-		 * 
+		 *
 		 * @return
 		 */
 		public V getData() throws IOException {
@@ -101,146 +167,664 @@ public abstract class DataCache<K, V> extends AbstractCache<K, V> {
 					throw e;
 				}
 			}
-			
+
 			return data;
 		}
 
 		public boolean pushToDisk() {
 			try {
-			
+
 				writeToDisk();
-			
+
 				data = null;
-				
+
 				return true;
-				
+
 			} catch (IOException e) {
 				return false;
 			}
 		}
-		
+
 		private void readFromDisk() throws IOException {
-			if (fileHandle == null || !fileHandle.canRead())
+			if (location != null && location.id != -1) {
+				data = decodeData(decompress(diskStore.read(location.id)));
+				return;
+			}
+
+			if (location == null || !location.file.canRead())
 				throw new IOException("Data does not exist or is not readable.");
 
-			data = readData(fileHandle, length);
-					
+			if (codec != null) {
+				data = decodeData(decompress(readFile(location.file)));
+				return;
+			}
+
+			data = readData(location.file, length);
+
 		}
-		
+
 		private void writeToDisk() throws IOException {
-			if (fileHandle != null || data == null)
+			if (location != null || data == null)
 				return;
-			
+
+			location = store(data);
+		}
+
+		/**
+		 * Writes the data to the disk. The wrapper itself is not modified, so
+		 * the method can be called without holding the lock of the cache.
+		 *
+		 * @param data the data of the wrapper
+		 * @return location of the written data
+		 */
+		private Location store(V data) throws IOException {
+			Location location = new Location();
+
+			if (diskStore instanceof PersistentStore) {
+				byte[] record = compress(encodeData(data));
+				location.id = ((PersistentStore) diskStore).write(storeKey(key, length), record);
+				location.length = record.length;
+				return location;
+			}
+
+			if (diskStore != null) {
+				byte[] record = compress(encodeData(data));
+				location.id = diskStore.write(record);
+				location.length = record.length;
+				return location;
+			}
+
+			if (tempDir == null)
+				throw new IOException("No temporary directory available.");
+
 			synchronized (tempDir) {
-				fileHandle = tempDir.tempFileName("cache");
+				location.file = tempDir.tempFileName("cache");
+			}
 
-				writeData(fileHandle, data);
-				
+			if (codec != null) {
+				byte[] record = compress(encodeData(data));
+				writeFile(location.file, record);
+				location.length = record.length;
+			} else {
+				writeData(location.file, data);
+				location.length = length;
 			}
+
+			return location;
 		}
-		
+
 		public long getLength() {
 			return length;
 		}
-		
+
 		/**
 		 * Returns the key of the object
-		 * 
+		 *
 		 * @return the key
 		 */
 		public K getKey() {
 			return key;
 		}
 
-		/**
-		 * Updates the timestamp to the current time.
-		 * 
-		 */
-		public void touch() {
-			timestamp = System.currentTimeMillis();
-		}
-
 		public void delete() {
-			
-			if (fileHandle != null)
-				fileHandle.delete();
-			
+
+			discard(location);
+
+			location = null;
 			data = null;
-			
+
+		}
+
+	}
+
+	/**
+	 * Second entry of the wrapper that is used to track the data that is
+	 * held in memory.
+	 */
+	private class MemoryEntry extends CacheEntry<K> {
+
+		private DataWrapper wrapper;
+
+		public MemoryEntry(DataWrapper wrapper) {
+			this.wrapper = wrapper;
+		}
+
+		public K getKey() {
+			return wrapper.getKey();
+		}
+
+	}
+
+	/**
+	 * Background thread that writes the data of the entries that were
+	 * moved out of memory.
+	 */
+	private class SpillWriter extends Thread {
+
+		private LinkedBlockingQueue<DataWrapper> queue = new LinkedBlockingQueue<DataWrapper>();
+
+		private volatile boolean running = true;
+
+		public SpillWriter() {
+			super("Cache spill writer");
+			setDaemon(true);
+		}
+
+		public void run() {
+
+			while (running || !queue.isEmpty()) {
+
+				DataWrapper ow;
+
+				try {
+					ow = queue.poll(100, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					continue;
+				}
+
+				if (ow == null)
+					continue;
+
+				V data;
+
+				synchronized (DataCache.this) {
+					data = ow.data;
+				}
+
+				Location location = null;
+
+				// the data is written without holding the lock, the entry
+				// can be read and removed in the meantime
+				if (data != null) {
+					try {
+						location = ow.store(data);
+					} catch (IOException e) {
+					}
+				}
+
+				completeSpill(ow, location);
+
+			}
+
 		}
-		
+
 	}
 
 	public DataCache(long memoryLimit, long totalLimit, TempDirectory tempDir) throws IOException {
+		this(memoryLimit, totalLimit, tempDir, new LRUPolicy<K>(), new LRUPolicy<K>());
+	}
+
+	/**
+	 * Constructs a new cache with custom eviction policies.
+	 *
+	 * @param memoryLimit maximum size of the data held in memory
+	 * @param totalLimit maximum size of all the data, the data on disk is counted with its stored length
+	 * @param tempDir directory used for the data that does not fit into memory
+	 * @param policy policy that chooses the entries that are removed from the cache
+	 * @param memoryPolicy policy that chooses the entries that are moved to the disk
+	 * @throws IOException
+	 */
+	public DataCache(long memoryLimit, long totalLimit, TempDirectory tempDir,
+			EvictionPolicy<K> policy, EvictionPolicy<K> memoryPolicy) throws IOException {
 
 		if (memoryLimit > totalLimit)
 			throw new IllegalArgumentException("Memory limit must be lower or equal that the total limit.");
-		
+
+		if (policy == null || memoryPolicy == null || policy == memoryPolicy)
+			throw new IllegalArgumentException("Two distinct eviction policies are required.");
+
+		this.requestedTotalLimit = totalLimit;
+
 		if (tempDir == null) {
 			totalLimit = memoryLimit;
 		}
-		
+
 		this.memoryLimit = memoryLimit;
 		this.totalLimit = totalLimit;
-		
-		orderedAccess = new PriorityQueue<DataWrapper>();
 
-		orderedAccessMemory = new PriorityQueue<DataWrapper>();
-		
-		orderedContainer = new TreeMap<K, DataWrapper>();
+		this.policy = policy;
+
+		this.memoryPolicy = memoryPolicy;
+
+		orderedContainer = new HashMap<K, DataWrapper>();
 
 		this.tempDir = tempDir;
-		
-				//new TempDirectory("webstrips", WebStrips.getStorageManager().getCacheDirectory());
-		
+
+	}
+
+	/**
+	 * Sets the store that is used for the data that does not fit into
+	 * memory instead of the temporary directory. The store can only be set
+	 * while the cache is empty. Setting the store to <code>null</code>
+	 * restores the temporary directory.
+	 *
+	 * If the store is a {@link PersistentStore}, the entries it contains are
+	 * restored to the cache (the data remains on disk until it is queried)
+	 * and every inserted entry is immediately written to the store, so
+	 * that the content of the cache survives a restart. The keys are
+	 * converted with {@link #encodeKey(Object)} and
+	 * {@link #decodeKey(byte[])}.
+	 *
+	 * @param store the disk store or <code>null</code>
+	 * @throws IllegalStateException if the cache is not empty
+	 */
+	public synchronized void setDiskStore(DiskStore store) {
+
+		if (!orderedContainer.isEmpty())
+			throw new IllegalStateException("Disk store can only be set while the cache is empty.");
+
+		diskStore = store;
+
+		totalLimit = (store == null && tempDir == null) ? memoryLimit : requestedTotalLimit;
+
+		if (store instanceof PersistentStore)
+			restore((PersistentStore) store);
+
+	}
+
+	public synchronized DiskStore getDiskStore() {
+		return diskStore;
+	}
+
+	/**
+	 * Changes the maximum size of the data held in memory. If the new limit
+	 * is lower, the entries chosen by the memory eviction policy are moved
+	 * to disk right away. Used by {@link CacheManager} to move memory
+	 * between caches.
+	 *
+	 * @param memoryLimit the new limit
+	 */
+	public synchronized void setMemoryLimit(long memoryLimit) {
+
+		if (memoryLimit < 0)
+			throw new IllegalArgumentException("Limit must not be negative");
+
+		this.memoryLimit = memoryLimit;
+
+		// without a second tier the memory is all the cache has
+		if (diskStore == null && tempDir == null)
+			totalLimit = memoryLimit;
+
+		if (performPurge())
+			fireCacheUpdate();
+
+	}
+
+	public synchronized long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * Returns the number of queries that were answered from memory, without
+	 * reading the data from disk.
+	 *
+	 * @return number of memory hits
+	 */
+	public synchronized long getMemoryHitCount() {
+		return memoryHits;
+	}
+
+	/**
+	 * Enables or disables the asynchronous spilling. If enabled, the
+	 * entries that are moved out of memory are queued and written by a
+	 * background thread; until then they remain readable from memory. The
+	 * amount of the queued data is limited, once the limit is reached the
+	 * caller that spills more data waits until the writer catches up.
+	 *
+	 * @param maxPendingBytes maximum length of the queued data or 0 to
+	 *            write the data synchronously
+	 */
+	public synchronized void setWriteBehind(long maxPendingBytes) {
+
+		if (maxPendingBytes < 0)
+			throw new IllegalArgumentException("Limit must not be negative");
+
+		this.maxPendingBytes = maxPendingBytes;
+
+		if (maxPendingBytes > 0 && writer == null) {
+
+			writer = new SpillWriter();
+			writer.start();
+
+		} else if (maxPendingBytes == 0 && writer != null) {
+
+			// the queued entries are still written before the thread ends
+			writer.running = false;
+			writer = null;
+
+			notifyAll();
+
+		}
+
+	}
+
+	/**
+	 * Returns the length of the data that is waiting to be written by the
+	 * background writer.
+	 *
+	 * @return length of the queued data
+	 */
+	public synchronized long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * Sets the codec that compresses the data written to the disk (or to
+	 * the disk store). Every entry is checked first and stored uncompressed
+	 * if the compression would not save enough space. The data is converted
+	 * to bytes with {@link #encodeData(Object)} and
+	 * {@link #decodeData(byte[])}. The codec can only be set while the
+	 * cache is empty; a {@link PersistentStore} has to be used with the same
+	 * codec in every session. The data that is only on disk counts towards
+	 * the total limit with its compressed length, so more entries fit into
+	 * the cache; the memory limit still applies to the uncompressed data.
+	 *
+	 * @param codec the codec or <code>null</code> to disable the compression
+	 * @throws IllegalStateException if the cache is not empty
+	 */
+	public synchronized void setCompression(CompressionCodec codec) {
+
+		if (!orderedContainer.isEmpty())
+			throw new IllegalStateException("Compression can only be set while the cache is empty.");
+
+		this.codec = codec;
+
+	}
+
+	public CompressionCodec getCompression() {
+		return codec;
+	}
+
+	/**
+	 * Returns the ratio between the length of the data that was written to
+	 * the disk and its length before the compression.
+	 *
+	 * @return the compression ratio (1 if nothing was compressed)
+	 */
+	public double getCompressionRatio() {
+
+		long uncompressed = uncompressedBytes.get();
+
+		return uncompressed == 0 ? 1 : (double) compressedBytes.get() / uncompressed;
+	}
+
+	/**
+	 * Compresses the data if a codec is set and the data is compressible.
+	 * The result starts with a byte that tells if the data is compressed,
+	 * followed by the original length of the compressed data.
+	 */
+	private byte[] compress(byte[] data) throws IOException {
+
+		CompressionCodec codec = this.codec;
+
+		if (codec == null)
+			return data;
+
+		byte[] compressed = null;
+
+		// a sample of a large entry is tried first, so that the whole entry
+		// is not compressed in vain
+		if (data.length >= MIN_COMPRESSIBLE
+				&& (data.length < 4 * COMPRESSION_SAMPLE
+				|| isCompressible(codec.compress(data, 0, COMPRESSION_SAMPLE).length, COMPRESSION_SAMPLE))) {
+
+			compressed = codec.compress(data, 0, data.length);
+
+			if (!isCompressible(compressed.length, data.length))
+				compressed = null;
+
+		}
+
+		byte[] result;
+
+		if (compressed == null) {
+
+			result = new byte[data.length + 1];
+			result[0] = 0;
+			System.arraycopy(data, 0, result, 1, data.length);
+
+		} else {
+
+			result = new byte[compressed.length + 5];
+			result[0] = 1;
+			result[1] = (byte) (data.length >>> 24);
+			result[2] = (byte) (data.length >>> 16);
+			result[3] = (byte) (data.length >>> 8);
+			result[4] = (byte) data.length;
+			System.arraycopy(compressed, 0, result, 5, compressed.length);
+
+		}
+
+		uncompressedBytes.addAndGet(data.length);
+		compressedBytes.addAndGet(result.length);
+
+		return result;
+	}
+
+	private byte[] decompress(byte[] data) throws IOException {
+
+		CompressionCodec codec = this.codec;
+
+		if (codec == null)
+			return data;
+
+		if (data.length < 1)
+			throw new IOException("Compressed data is truncated");
+
+		if (data[0] == 0) {
+
+			byte[] result = new byte[data.length - 1];
+			System.arraycopy(data, 1, result, 0, result.length);
+
+			return result;
+
+		}
+
+		if (data.length < 5)
+			throw new IOException("Compressed data is truncated");
+
+		int length = ((data[1] & 0xff) << 24) | ((data[2] & 0xff) << 16)
+				| ((data[3] & 0xff) << 8) | (data[4] & 0xff);
+
+		return codec.decompress(data, 5, data.length - 5, length);
+	}
+
+	/**
+	 * Prefixes the encoded key of a persistent record with a marker and the
+	 * length of the data, the record itself may be compressed. The marker
+	 * tells the records written by this cache apart from the ones written
+	 * before the prefix was introduced.
+	 */
+	private byte[] storeKey(K key, long length) throws IOException {
+
+		byte[] encoded = encodeKey(key);
+		byte[] stored = new byte[encoded.length + KEY_PREFIX];
+
+		for (int i = 0; i < 4; i++)
+			stored[i] = (byte) (KEY_MARKER >>> (24 - 8 * i));
+
+		for (int i = 0; i < 8; i++)
+			stored[4 + i] = (byte) (length >>> (56 - 8 * i));
+
+		System.arraycopy(encoded, 0, stored, KEY_PREFIX, encoded.length);
+
+		return stored;
+	}
+
+	/**
+	 * Reads the length of the data from the prefix of a stored key.
+	 *
+	 * @return the length of the data or -1 if the key has no valid prefix
+	 */
+	private static long readLength(byte[] key) {
+
+		if (key.length < KEY_PREFIX)
+			return -1;
+
+		int marker = 0;
+
+		for (int i = 0; i < 4; i++)
+			marker = (marker << 8) | (key[i] & 0xff);
+
+		if (marker != KEY_MARKER)
+			return -1;
+
+		long length = 0;
+
+		for (int i = 0; i < 8; i++)
+			length = (length << 8) | (key[4 + i] & 0xff);
+
+		return length;
+	}
+
+	private static boolean isCompressible(int compressed, int length) {
+		return compressed <= length - length / 8;
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+
+		try {
+
+			byte[] data = new byte[(int) file.length()];
+			in.readFully(data);
+
+			return data;
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	private static void writeFile(File file, byte[] data) throws IOException {
+
+		FileOutputStream out = new FileOutputStream(file);
+
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+
+	}
+
+	private void restore(final PersistentStore store) {
+
+		final ArrayList<Long> obsolete = new ArrayList<Long>();
+
+		store.recover(new PersistentStore.RecoveryHandler() {
+
+			public void recovered(long id, byte[] key, int length, long timestamp) {
+
+				K k;
+
+				// the key is prefixed with the length of the data, records
+				// without a valid prefix can not be read back
+				long dataLength = readLength(key);
+
+				if (dataLength < 0) {
+					obsolete.add(id);
+					return;
+				}
+
+				try {
+					byte[] encoded = new byte[key.length - KEY_PREFIX];
+					System.arraycopy(key, KEY_PREFIX, encoded, 0, encoded.length);
+
+					k = decodeKey(encoded);
+				} catch (IOException e) {
+					obsolete.add(id);
+					return;
+				}
+
+				// the store can not be modified during the recovery, the
+				// older record of the key is deleted afterwards
+				DataWrapper old = orderedContainer.get(k);
+
+				if (old != null) {
+					policy.removed(old);
+					totalUsage -= old.charged;
+					obsolete.add(old.location.id);
+				}
+
+				DataWrapper ow = new DataWrapper(k, dataLength, id, length);
+
+				orderedContainer.put(k, ow);
+				policy.inserted(ow);
+				charge(ow);
+
+			}
+
+		});
+
+		for (Long id : obsolete)
+			store.delete(id);
+
+		performPurge();
+
 	}
 
 	/**
 	 * Searches for the object by its key. If the object is found, the method
-	 * also updates its access time.
-	 * 
+	 * also notifies the eviction policies about the access. If the data was
+	 * moved to the disk, it is loaded back to memory.
+	 *
 	 * @param key
 	 *            the key to search with
 	 * @return the object or <code>null</code> if no object is found
 	 */
 	public synchronized V query(K key) {
 
-		DataWrapper ow = (DataWrapper) orderedContainer.get(key);
+		DataWrapper ow = orderedContainer.get(key);
 
-		if (ow == null)
+		if (ow == null) {
+			recordMiss();
 			return null;
+		}
+
+		policy.accessed(ow);
+
+		if (ow.inMemory) {
+
+			memoryPolicy.accessed(ow.memory);
+			memoryHits++;
 
-		// update the cache access list
-		orderedAccess.remove(ow);
-		if (!orderedAccessMemory.remove(ow)) {
+		} else {
+
+			ow.inMemory = true;
+			memoryPolicy.inserted(ow.memory);
 			memoryUsage += ow.getLength();
+			charge(ow);
+
 		}
-		
-		ow.touch();
-		orderedAccess.add(ow);
-		orderedAccessMemory.add(ow);
-		
+
 		try {
-			
-			return ow.getData();
-		
+
+			V data = ow.getData();
+
+			performPurge();
+
+			recordHit();
+
+			return data;
+
 		} catch (IOException e) {
-			
-			orderedAccess.remove(ow);
-			if (orderedAccessMemory.remove(ow)) 
-				memoryUsage -= ow.getLength();
-			
-			totalUsage -= ow.getLength();
-			
+
+			removeEntry(ow, RemovalCause.FAILED);
+
+			recordMiss();
+
 			return null;
-		
+
 		}
 	}
 
 	/**
 	 * Inserts an data to the cache. If the same (with same key) data object
 	 * already exists, nothing is done.
-	 * 
+	 *
 	 * @param key
 	 *            a key that is used to identify the object
 	 * @param o
@@ -248,107 +832,411 @@ public abstract class DataCache<K, V> extends AbstractCache<K, V> {
 	 */
 	public synchronized void insert(K key, V o) {
 
+		if (!put(key, o))
+			return;
+
+		performPurge();
+
+		fireCacheUpdate();
+
+	}
+
+	/**
+	 * Replaces the data of a key that is in the cache. The old data is
+	 * discarded, the new data is stored the same way as an inserted one.
+	 *
+	 * @param key
+	 *            a key that is used to identify the object
+	 * @param o
+	 *            the new data
+	 * @return <code>true</code> if the data was replaced, <code>false</code>
+	 *         if the key is not in the cache
+	 */
+	@Override
+	public synchronized boolean replace(K key, V o) {
+
+		DataWrapper ow = orderedContainer.get(key);
+
+		if (ow == null)
+			return false;
+
+		release(ow);
+
+		put(key, o);
+
+		performPurge();
+
+		fireCacheUpdate();
+
+		return true;
+
+	}
+
+	/**
+	 * Searches for the objects while holding the lock only once.
+	 *
+	 * @param keys the keys to search with
+	 * @return the objects that were found, mapped by their keys
+	 */
+	@Override
+	public synchronized Map<K, V> queryAll(Collection<? extends K> keys) {
+		return super.queryAll(keys);
+	}
+
+	/**
+	 * Inserts the data while holding the lock only once. The limits are
+	 * enforced after all the data is inserted.
+	 *
+	 * @param objects the data mapped by their keys
+	 */
+	@Override
+	public void insertAll(Map<? extends K, ? extends V> objects) {
+
+		beginBatch();
+
+		try {
+
+			synchronized (this) {
+
+				for (Map.Entry<? extends K, ? extends V> e : objects.entrySet())
+					put(e.getKey(), e.getValue());
+
+				performPurge();
+
+				fireCacheUpdate();
+
+			}
+
+		} finally {
+			endBatch();
+		}
+
+	}
+
+	/**
+	 * Removes the data while holding the lock only once.
+	 *
+	 * @param keys the keys of the removed data
+	 */
+	@Override
+	public void removeAll(Collection<? extends K> keys) {
+
+		beginBatch();
+
+		try {
+
+			synchronized (this) {
+
+				for (K key : keys)
+					remove(key);
+
+			}
+
+		} finally {
+			endBatch();
+		}
+
+	}
+
+	/**
+	 * Adds the data without enforcing the limits.
+	 *
+	 * @return <code>false</code> if the key is already in the cache
+	 */
+	private boolean put(K key, V o) {
+
 		// prevent duplicates
 		if (orderedContainer.get(key) != null)
-			return;
+			return false;
 
 		DataWrapper ow = new DataWrapper(key, o);
 
-		orderedAccess.add(ow);
+		// a persistent store receives the data right away, the entry stays
+		// in memory only if it can not be written
+		if (diskStore instanceof PersistentStore) {
+			try {
+				ow.writeToDisk();
+			} catch (IOException e) {
+			}
+		}
+
 		orderedContainer.put(key, ow);
-		orderedAccessMemory.add(ow);
+		policy.inserted(ow);
+		memoryPolicy.inserted(ow.memory);
 		memoryUsage += ow.getLength();
-		totalUsage += ow.getLength();			
-	
-		performPurge();
+		charge(ow);
+
+		fireInserted(key);
+
+		return true;
 
-		fireCacheUpdate();
-		
 	}
 
 	/**
-	 * Finds the least recently used element and removes the suitable object
-	 * from the cache.
+	 * Removes the entries chosen by the eviction policy until the total
+	 * limit is met, then moves the entries chosen by the memory eviction
+	 * policy to disk until the memory limit is met.
 	 */
 	private synchronized boolean performPurge() {
 
 		boolean changed = false;
-		
+
 		while (totalUsage > totalLimit) {
-			
-			changed |= removeOldest();
+
+			// the queued entries are counted with their full length until
+			// they are written, the writer may free enough space
+			if (writer != null && pendingBytes > 0 && !Thread.currentThread().isInterrupted()) {
+
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+
+				continue;
+
+			}
+
+			if (!removeOldest())
+				break;
+
+			changed = true;
 
 		}
-		
+
 		while (memoryUsage > memoryLimit) {
-			
-			changed |= removeOldestFromMemory();
+
+			if (!removeOldestFromMemory())
+				break;
+
+			changed = true;
 
 		}
 
 		return changed;
 	}
 
+	@SuppressWarnings("unchecked")
 	private synchronized boolean removeOldest() {
 
-		synchronized (this) {
-			DataWrapper ow = orderedAccess.poll();
-			
-			if (ow == null)
-				return false;
+		DataWrapper ow = (DataWrapper) policy.victim();
 
-			orderedAccessMemory.remove(ow);
-			orderedContainer.remove(ow.getKey());
-			
-			memoryUsage -= ow.getLength();
-			totalUsage -= ow.getLength();	
-			ow.delete();
-			
-			return true;
-		}
+		if (ow == null)
+			return false;
+
+		removeEntry(ow, RemovalCause.SIZE);
+
+		return true;
 
 	}
 
+	@SuppressWarnings("unchecked")
 	private synchronized boolean removeOldestFromMemory() {
 
-		synchronized (this) {
-			DataWrapper ow = orderedAccessMemory.poll();
-			
-			if (ow == null)
-				return false;
+		MemoryEntry me = (MemoryEntry) memoryPolicy.victim();
 
-			memoryUsage -= ow.getLength();
+		if (me == null)
+			return false;
+
+		DataWrapper ow = me.wrapper;
+
+		memoryPolicy.removed(me);
+		ow.inMemory = false;
+		memoryUsage -= ow.getLength();
+
+		// the data is already on disk, it was either read back from it or
+		// written to a persistent store
+		if (ow.location != null) {
+			ow.data = null;
+			charge(ow);
+			return true;
+		}
 
-			ow.pushToDisk();
-			
+		if (ow.pending)
 			return true;
+
+		if (writer != null) {
+
+			while (writer != null && pendingBytes > 0
+					&& pendingBytes + ow.getLength() > maxPendingBytes) {
+
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+
+			}
+
+			// the entry could have changed while waiting
+			if (orderedContainer.get(ow.getKey()) != ow || ow.inMemory
+					|| ow.location != null || ow.pending)
+				return true;
+
+			if (writer != null) {
+
+				ow.pending = true;
+				pendingBytes += ow.getLength();
+				writer.queue.add(ow);
+
+				return true;
+
+			}
+
+		}
+
+		// data that can not be written to disk is dropped
+		if (ow.pushToDisk())
+			charge(ow);
+		else
+			removeEntry(ow, RemovalCause.SIZE);
+
+		return true;
+
+	}
+
+	/**
+	 * Called by the background writer when the data of an entry was
+	 * written (the location is <code>null</code> if the write failed).
+	 */
+	private synchronized void completeSpill(DataWrapper ow, Location location) {
+
+		ow.pending = false;
+		pendingBytes -= ow.getLength();
+
+		notifyAll();
+
+		if (orderedContainer.get(ow.getKey()) != ow) {
+			discard(location);
+			return;
+		}
+
+		if (location == null) {
+
+			// data that can not be written to disk is dropped
+			if (!ow.inMemory)
+				removeEntry(ow, RemovalCause.SIZE);
+
+			return;
+		}
+
+		ow.location = location;
+
+		// the entry may have been queried and moved back to memory
+		if (!ow.inMemory)
+			ow.data = null;
+
+		charge(ow);
+
+	}
+
+	/**
+	 * Updates the total usage with the current length of the entry. The data
+	 * held in memory is counted with its full length, the data that is only
+	 * on disk is counted with the length of its record, which is shorter if
+	 * the data was compressed.
+	 */
+	private void charge(DataWrapper ow) {
+
+		long length = ow.inMemory || ow.location == null || ow.location.length < 0
+				? ow.getLength() : ow.location.length;
+
+		totalUsage += length - ow.charged;
+		ow.charged = length;
+
+	}
+
+	private void discard(Location location) {
+
+		if (location == null)
+			return;
+
+		if (location.file != null)
+			location.file.delete();
+
+		if (location.id != -1)
+			diskStore.delete(location.id);
+
+	}
+
+	private void removeEntry(DataWrapper ow, RemovalCause cause) {
+
+		recordRemoval(cause, 1);
+
+		fireRemoved(ow.getKey(), cause);
+
+		release(ow);
+
+	}
+
+	/**
+	 * Takes the entry out of the cache and discards its data without
+	 * recording the removal.
+	 */
+	private void release(DataWrapper ow) {
+
+		policy.removed(ow);
+		orderedContainer.remove(ow.getKey());
+
+		if (ow.inMemory) {
+			memoryPolicy.removed(ow.memory);
+			ow.inMemory = false;
+			memoryUsage -= ow.getLength();
 		}
 
+		totalUsage -= ow.charged;
+		ow.charged = 0;
+		ow.delete();
+
 	}
-	
+
 	public synchronized void flush() {
-		
-		synchronized (this) {
-			for (DataWrapper d : orderedAccess) {
-				d.delete();
-			}
-			
-			orderedAccess.clear();
-			orderedContainer.clear();
-			memoryUsage = 0;
-			totalUsage = 0;
+
+		recordRemoval(RemovalCause.EXPLICIT, orderedContainer.size());
+
+		for (DataWrapper d : orderedContainer.values()) {
+			d.delete();
 		}
-		
+
+		policy.clear();
+		memoryPolicy.clear();
+		orderedContainer.clear();
+		memoryUsage = 0;
+		totalUsage = 0;
+
+		fireFlushed();
+
 		fireCacheUpdate();
-		
+
+	}
+
+	public synchronized int size() {
+		return orderedContainer.size();
+	}
+
+	/**
+	 * Returns the total length of the data in the cache (in memory and on
+	 * disk). The data that is only on disk is counted with the length of its
+	 * record, which may be compressed.
+	 *
+	 * @return the total length
+	 */
+	public synchronized long getWeight() {
+		return totalUsage;
 	}
-	
-	public int size() {
-		return orderedAccess.size();
+
+	/**
+	 * Returns the length of the data that is held in memory.
+	 *
+	 * @return the length of the data in memory
+	 */
+	public synchronized long getMemoryUsage() {
+		return memoryUsage;
 	}
 
 	public synchronized boolean contains(K key) {
-		DataWrapper ow = (DataWrapper) orderedContainer.get(key);
+		DataWrapper ow = orderedContainer.get(key);
 
 		return (ow != null);
 
@@ -356,35 +1244,79 @@ public abstract class DataCache<K, V> extends AbstractCache<K, V> {
 
 	public synchronized V remove(K key) {
 
-		DataWrapper ow = (DataWrapper) orderedContainer.get(key);
+		DataWrapper ow = orderedContainer.get(key);
 
 		if (ow == null)
 			return null;
 
-		// update the cache access list
-		orderedAccess.remove(ow);
-		totalUsage -= ow.getLength();
-		if (!orderedAccessMemory.remove(ow)) {
-			memoryUsage -= ow.getLength();
-		}
+		V data = null;
 
 		try {
-			
-			fireCacheUpdate();
-			
-			return ow.getData();
-		
+
+			data = ow.getData();
+
 		} catch (IOException e) {
-			return null;
 		}
+
+		removeEntry(ow, RemovalCause.EXPLICIT);
+
+		fireCacheUpdate();
+
+		return data;
 	}
 
 	protected abstract long getDataLength(V object);
 
 	protected abstract V readData(File file, long length) throws IOException;
-	
+
 	protected abstract void writeData(File file, V data) throws IOException;
-	
-}
 
+	/**
+	 * Converts the data to bytes so that it can be written to the
+	 * {@link DiskStore}. The default implementation does not support any
+	 * data.
+	 *
+	 * @param data the data
+	 * @return encoded data
+	 * @throws IOException if the data can not be encoded
+	 */
+	protected byte[] encodeData(V data) throws IOException {
+		throw new IOException("Data can not be encoded.");
+	}
+
+	/**
+	 * Converts the key to bytes so that it can be written to a
+	 * {@link PersistentStore}. The default implementation does not support
+	 * any key.
+	 *
+	 * @param key the key
+	 * @return encoded key
+	 * @throws IOException if the key can not be encoded
+	 */
+	protected byte[] encodeKey(K key) throws IOException {
+		throw new IOException("Key can not be encoded.");
+	}
+
+	/**
+	 * Converts the bytes read from a {@link PersistentStore} back to a key.
+	 *
+	 * @param key encoded key
+	 * @return the key
+	 * @throws IOException if the key can not be decoded
+	 */
+	protected K decodeKey(byte[] key) throws IOException {
+		throw new IOException("Key can not be decoded.");
+	}
+
+	/**
+	 * Converts the bytes read from the {@link DiskStore} back to data.
+	 *
+	 * @param data encoded data
+	 * @return the data
+	 * @throws IOException if the data can not be decoded
+	 */
+	protected V decodeData(byte[] data) throws IOException {
+		throw new IOException("Data can not be decoded.");
+	}
 
+}
@@ -0,0 +1,102 @@
+package org.coffeeshop.cache;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression codec that uses the deflate algorithm of the JDK.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+	private int level;
+
+	public DeflateCodec() {
+		this(Deflater.BEST_SPEED);
+	}
+
+	/**
+	 * Constructs a new codec.
+	 *
+	 * @param level compression level (from 1 to 9)
+	 */
+	public DeflateCodec(int level) {
+
+		if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+			throw new IllegalArgumentException("Illegal compression level");
+
+		this.level = level;
+	}
+
+	public byte[] compress(byte[] data, int offset, int length) {
+
+		Deflater deflater = new Deflater(level);
+
+		try {
+
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+
+			byte[] buffer = new byte[length + length / 1000 + 64];
+			int size = 0;
+
+			while (!deflater.finished()) {
+
+				if (size == buffer.length) {
+					byte[] tmp = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, tmp, 0, size);
+					buffer = tmp;
+				}
+
+				size += deflater.deflate(buffer, size, buffer.length - size);
+
+			}
+
+			byte[] result = new byte[size];
+			System.arraycopy(buffer, 0, result, 0, size);
+
+			return result;
+
+		} finally {
+			deflater.end();
+		}
+
+	}
+
+	public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+
+		Inflater inflater = new Inflater();
+
+		try {
+
+			inflater.setInput(data, offset, length);
+
+			byte[] result = new byte[originalLength];
+			int size = 0;
+
+			while (size < originalLength) {
+
+				int n = inflater.inflate(result, size, originalLength - size);
+
+				if (n == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+
+				size += n;
+
+			}
+
+			if (size != originalLength)
+				throw new IOException("Compressed data is truncated");
+
+			return result;
+
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed data is corrupted: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.coffeeshop.cache;
+
+import java.io.IOException;
+
+/**
+ * A store for binary records that can be used as the disk tier of a
+ * {@link DataCache}. The store assigns an identifier to each record it
+ * writes, the identifier remains valid until the record is deleted.
+ *
+ * The implementations must be thread-safe.
+ *
+ * @see DataCache#setDiskStore(DiskStore)
+ */
+public interface DiskStore {
+
+	/**
+	 * Writes a new record.
+	 *
+	 * @param data content of the record
+	 * @return identifier of the record
+	 * @throws IOException if the record can not be written
+	 */
+	public long write(byte[] data) throws IOException;
+
+	/**
+	 * Reads a record.
+	 *
+	 * @param id identifier of the record
+	 * @return content of the record
+	 * @throws IOException if the record does not exist or can not be read
+	 */
+	public byte[] read(long id) throws IOException;
+
+	/**
+	 * Deletes a record. Nothing is done if the record does not exist.
+	 *
+	 * @param id identifier of the record
+	 */
+	public void delete(long id);
+
+	/**
+	 * Deletes all the records.
+	 */
+	public void clear();
+
+	/**
+	 * Releases the resources of the store. The store can not be used
+	 * afterwards.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,137 @@
+package org.coffeeshop.cache;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the events of a cache from a dedicated thread. The events are
+ * posted into a bounded ring buffer and the dispatcher delivers everything
+ * that has accumulated since the last delivery as a single batch. If the
+ * buffer is full the events are dropped and counted, so that a slow listener
+ * can never block the cache.
+ *
+ * The cache is only weakly referenced, so that a cache that is no longer
+ * used can be collected while its dispatcher is running. The thread ends
+ * when it notices that the cache is gone.
+ *
+ * @param <K> type of the keys
+ */
+class EventDispatcher<K> implements Runnable {
+
+	private static final int MAXIMUM_BATCH = 1024;
+
+	private static final long POLL_TIMEOUT = 100;
+
+	private final CacheEvent<K> updateMarker = new CacheEvent<K>(null, null, null);
+
+	private WeakReference<AbstractCache<K, ?>> cache;
+
+	private ArrayBlockingQueue<CacheEvent<K>> buffer;
+
+	private AtomicLong dropped = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	private AtomicBoolean updatePending = new AtomicBoolean(false);
+
+	private Thread thread;
+
+	public EventDispatcher(AbstractCache<K, ?> cache, int capacity) {
+
+		this.cache = new WeakReference<AbstractCache<K, ?>>(cache);
+		this.buffer = new ArrayBlockingQueue<CacheEvent<K>>(capacity);
+
+		thread = new Thread(this, "Cache event dispatcher");
+		thread.setDaemon(true);
+		thread.start();
+
+	}
+
+	/**
+	 * Posts an event into the buffer.
+	 *
+	 * @param event the event
+	 */
+	public void post(CacheEvent<K> event) {
+
+		if (!buffer.offer(event))
+			dropped.incrementAndGet();
+
+	}
+
+	/**
+	 * Requests a call of the untyped listeners with the next batch.
+	 */
+	public void postUpdate() {
+
+		// wake up the dispatcher in case there are no other events
+		if (updatePending.compareAndSet(false, true))
+			buffer.offer(updateMarker);
+
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Stops the dispatcher once the events in the buffer are delivered.
+	 */
+	public void shutdown() {
+		running = false;
+	}
+
+	public void run() {
+
+		ArrayList<CacheEvent<K>> batch = new ArrayList<CacheEvent<K>>();
+
+		while (running || !buffer.isEmpty()) {
+
+			CacheEvent<K> event;
+
+			try {
+				event = buffer.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			}
+
+			if (event == null) {
+
+				if (cache.get() == null)
+					break;
+
+				continue;
+			}
+
+			batch.add(event);
+			buffer.drainTo(batch, MAXIMUM_BATCH - 1);
+
+			for (Iterator<CacheEvent<K>> i = batch.iterator(); i.hasNext();)
+				if (i.next() == updateMarker)
+					i.remove();
+
+			boolean update = updatePending.getAndSet(false);
+
+			if (update || !batch.isEmpty()) {
+
+				AbstractCache<K, ?> c = cache.get();
+
+				if (c == null)
+					break;
+
+				c.deliver(batch, update);
+
+			}
+
+			batch.clear();
+
+		}
+
+	}
+
+}
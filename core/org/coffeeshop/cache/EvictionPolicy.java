@@ -0,0 +1,54 @@
+package org.coffeeshop.cache;
+
+/**
+ * An eviction policy decides which entry has to leave the cache when the
+ * cache runs out of space. The cache notifies the policy about every
+ * insertion, access and removal of an entry and asks it for a victim when
+ * the capacity is exceeded.
+ *
+ * The policy keeps its own state, so an instance of the policy must not be
+ * shared between several caches. The cache guarantees that the methods are
+ * not called concurrently.
+ *
+ * @param <K> type of the keys
+ */
+public interface EvictionPolicy<K> {
+
+	/**
+	 * Called after a new entry was added to the cache.
+	 *
+	 * @param entry the new entry
+	 */
+	public void inserted(CacheEntry<K> entry);
+
+	/**
+	 * Called when an entry in the cache is accessed.
+	 *
+	 * @param entry the accessed entry
+	 */
+	public void accessed(CacheEntry<K> entry);
+
+	/**
+	 * Called when an entry leaves the cache, either because it was selected
+	 * as a victim or because it was removed explicitly.
+	 *
+	 * @param entry the removed entry
+	 */
+	public void removed(CacheEntry<K> entry);
+
+	/**
+	 * Selects the entry that should be evicted next. The entry is not
+	 * removed by this method, the cache will call {@link #removed(CacheEntry)}
+	 * once it has evicted it.
+	 *
+	 * @return the entry to evict or <code>null</code> if the policy tracks no
+	 * entries
+	 */
+	public CacheEntry<K> victim();
+
+	/**
+	 * Forgets all the entries.
+	 */
+	public void clear();
+
+}
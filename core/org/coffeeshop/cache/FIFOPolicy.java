@@ -0,0 +1,33 @@
+package org.coffeeshop.cache;
+
+/**
+ * First in, first out eviction policy. Accesses are ignored, the oldest
+ * entry is evicted first. This is the cheapest policy as a hit does not
+ * modify any state.
+ *
+ * @param <K> type of the keys
+ */
+public class FIFOPolicy<K> implements EvictionPolicy<K> {
+
+	private AccessList<CacheEntry<K>> queue = new AccessList<CacheEntry<K>>();
+
+	public void inserted(CacheEntry<K> entry) {
+		queue.add(entry);
+	}
+
+	public void accessed(CacheEntry<K> entry) {
+	}
+
+	public void removed(CacheEntry<K> entry) {
+		queue.remove(entry);
+	}
+
+	public CacheEntry<K> victim() {
+		return queue.peek();
+	}
+
+	public void clear() {
+		queue.clear();
+	}
+
+}
@@ -0,0 +1,133 @@
+package org.coffeeshop.cache;
+
+/**
+ * A count-min sketch that estimates how often a key was seen recently. The
+ * counters are four bits wide and sixteen of them are packed into a single
+ * <code>long</code>. Once the number of recorded events reaches the sample
+ * size all the counters are halved, so that the old popularity fades away.
+ *
+ * The sketch is not thread-safe.
+ */
+public class FrequencySketch {
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+			0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private static final int MAXIMUM = 15;
+
+	private long[] table;
+
+	private int tableMask;
+
+	private int sampleSize;
+
+	private int events = 0;
+
+	/**
+	 * Constructs a sketch for a cache of the given capacity.
+	 *
+	 * @param capacity the expected number of entries in the cache
+	 */
+	public FrequencySketch(int capacity) {
+
+		int length = 1;
+
+		while (length < Math.max(capacity, 16))
+			length <<= 1;
+
+		table = new long[length];
+		tableMask = length - 1;
+		sampleSize = 10 * Math.max(capacity, 16);
+
+	}
+
+	/**
+	 * Returns the estimated number of occurrences of the key (at most 15).
+	 *
+	 * @param key the key
+	 * @return the estimated frequency
+	 */
+	public int frequency(Object key) {
+
+		int hash = spread(key.hashCode());
+		int frequency = MAXIMUM;
+
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int offset = counterOffset(hash, i);
+			int count = (int) ((table[index] >>> offset) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+
+		return frequency;
+	}
+
+	/**
+	 * Records an occurrence of the key.
+	 *
+	 * @param key the key
+	 */
+	public void increment(Object key) {
+
+		int hash = spread(key.hashCode());
+		boolean added = false;
+
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int offset = counterOffset(hash, i);
+			long mask = 0xfL << offset;
+
+			if ((table[index] & mask) != mask) {
+				table[index] += 1L << offset;
+				added = true;
+			}
+		}
+
+		if (added && ++events >= sampleSize)
+			reset();
+
+	}
+
+	/**
+	 * Clears all the counters.
+	 */
+	public void clear() {
+
+		for (int i = 0; i < table.length; i++)
+			table[i] = 0;
+
+		events = 0;
+
+	}
+
+	private void reset() {
+
+		for (int i = 0; i < table.length; i++)
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+
+		events = events / 2;
+
+	}
+
+	private int indexOf(int hash, int i) {
+
+		long h = (hash + SEEDS[i]) * SEEDS[i];
+		h += h >>> 32;
+
+		return ((int) h) & tableMask;
+	}
+
+	private int counterOffset(int hash, int i) {
+		// each hash function uses a different quarter of the long
+		return ((i << 2) + ((hash >>> (i << 3)) & 3)) << 2;
+	}
+
+	private static int spread(int h) {
+		h = ((h >>> 16) ^ h) * 0x45d9f3b;
+		h = ((h >>> 16) ^ h) * 0x45d9f3b;
+		return (h >>> 16) ^ h;
+	}
+
+}
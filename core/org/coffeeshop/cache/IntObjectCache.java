@@ -0,0 +1,70 @@
+package org.coffeeshop.cache;
+
+/**
+ * A cache with <code>int</code> keys. The keys are not boxed and the entries
+ * are not wrapped in objects, see {@link PrimitiveKeyCache}. The methods
+ * that take an Integer key are provided for the compatibility with the
+ * {@link Cache} interface.
+ */
+public class IntObjectCache<V> extends PrimitiveKeyCache<Integer, V> {
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param objectLimit maximum number of objects in the cache
+	 */
+	public IntObjectCache(int objectLimit) {
+		super(objectLimit);
+	}
+
+	/**
+	 * Searches for the object by its key.
+	 *
+	 * @param key the key to search with
+	 * @return the object or <code>null</code> if no object is found
+	 */
+	public V query(int key) {
+		return get(key);
+	}
+
+	/**
+	 * Inserts an object to the cache. If an object with the same key already
+	 * exists, nothing is done.
+	 *
+	 * @param key the key of the object
+	 * @param object the object itself
+	 */
+	public void insert(int key, V object) {
+		put(key, object);
+	}
+
+	/**
+	 * Replaces the object of a key that is in the cache.
+	 *
+	 * @param key the key of the object
+	 * @param object the new object
+	 * @return <code>false</code> if the key is not in the cache
+	 */
+	public boolean replace(int key, V object) {
+		return swap(key, object);
+	}
+
+	public boolean contains(int key) {
+		return containsKey(key);
+	}
+
+	public V remove(int key) {
+		return delete(key);
+	}
+
+	@Override
+	protected long toPrimitive(Integer key) {
+		return key;
+	}
+
+	@Override
+	protected Integer toObject(long key) {
+		return (int) key;
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.coffeeshop.cache;
+
+/**
+ * Least frequently used eviction policy. The entries are grouped into
+ * buckets by their access count and the buckets are kept in a list ordered
+ * by the count, so both a hit and the selection of the victim take constant
+ * time. Among the entries with the same count the least recently used one
+ * is evicted first.
+ *
+ * @param <K> type of the keys
+ */
+public class LFUPolicy<K> implements EvictionPolicy<K> {
+
+	private static class Bucket<K> extends AccessList<CacheEntry<K>> {
+
+		private int frequency;
+
+		private Bucket<K> previous, next;
+
+		public Bucket(int frequency) {
+			this.frequency = frequency;
+		}
+
+	}
+
+	private Bucket<K> head = null;
+
+	public void inserted(CacheEntry<K> entry) {
+
+		if (head == null || head.frequency != 1)
+			head = link(new Bucket<K>(1), null, head);
+
+		head.add(entry);
+
+	}
+
+	@SuppressWarnings("unchecked")
+	public void accessed(CacheEntry<K> entry) {
+
+		if (!(entry.owner instanceof Bucket))
+			return;
+
+		Bucket<K> bucket = (Bucket<K>) entry.owner;
+		Bucket<K> next = bucket.next;
+
+		if (next == null || next.frequency != bucket.frequency + 1)
+			next = link(new Bucket<K>(bucket.frequency + 1), bucket, next);
+
+		bucket.remove(entry);
+		next.add(entry);
+
+		if (bucket.isEmpty())
+			unlink(bucket);
+
+	}
+
+	@SuppressWarnings("unchecked")
+	public void removed(CacheEntry<K> entry) {
+
+		if (!(entry.owner instanceof Bucket))
+			return;
+
+		Bucket<K> bucket = (Bucket<K>) entry.owner;
+
+		bucket.remove(entry);
+
+		if (bucket.isEmpty())
+			unlink(bucket);
+
+	}
+
+	public CacheEntry<K> victim() {
+		return head == null ? null : head.peek();
+	}
+
+	public void clear() {
+
+		while (head != null) {
+			head.clear();
+			head = head.next;
+		}
+
+	}
+
+	private Bucket<K> link(Bucket<K> bucket, Bucket<K> previous, Bucket<K> next) {
+
+		bucket.previous = previous;
+		bucket.next = next;
+
+		if (previous != null)
+			previous.next = bucket;
+
+		if (next != null)
+			next.previous = bucket;
+
+		return bucket;
+	}
+
+	private void unlink(Bucket<K> bucket) {
+
+		if (bucket.previous == null)
+			head = bucket.next;
+		else
+			bucket.previous.next = bucket.next;
+
+		if (bucket.next != null)
+			bucket.next.previous = bucket.previous;
+
+		bucket.previous = null;
+		bucket.next = null;
+
+	}
+
+}
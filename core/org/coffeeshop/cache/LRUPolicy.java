@@ -0,0 +1,33 @@
+package org.coffeeshop.cache;
+
+/**
+ * Least recently used eviction policy. This is the default policy of the
+ * caches in this package.
+ *
+ * @param <K> type of the keys
+ */
+public class LRUPolicy<K> implements EvictionPolicy<K> {
+
+	private AccessList<CacheEntry<K>> orderedAccess = new AccessList<CacheEntry<K>>();
+
+	public void inserted(CacheEntry<K> entry) {
+		orderedAccess.add(entry);
+	}
+
+	public void accessed(CacheEntry<K> entry) {
+		orderedAccess.moveToTail(entry);
+	}
+
+	public void removed(CacheEntry<K> entry) {
+		orderedAccess.remove(entry);
+	}
+
+	public CacheEntry<K> victim() {
+		return orderedAccess.peek();
+	}
+
+	public void clear() {
+		orderedAccess.clear();
+	}
+
+}
@@ -0,0 +1,184 @@
+package org.coffeeshop.cache;
+
+import java.io.IOException;
+
+/**
+ * A fast compression codec from the LZ77 family, similar to the LZ4 block
+ * format. The repeated sequences are found with a single-entry hash table,
+ * so the compression ratio is lower than that of {@link DeflateCodec}, but
+ * both the compression and the decompression are several times faster.
+ *
+ * The compressed data is a list of sequences. Each sequence starts with a
+ * token whose upper four bits are the number of literals and the lower four
+ * bits are the length of the match (minus the minimal match length). Longer
+ * lengths continue in the following bytes (255 means that another byte
+ * follows). The literals are followed by a two-byte offset of the match.
+ * The last sequence only contains literals.
+ */
+public class LZCodec implements CompressionCodec {
+
+	private static final int MIN_MATCH = 4;
+
+	private static final int HASH_BITS = 12;
+
+	private static final int MAX_OFFSET = 65535;
+
+	// the last bytes are always stored as literals, so that the matches can
+	// be compared four bytes at a time
+	private static final int LAST_LITERALS = 5;
+
+	public byte[] compress(byte[] data, int offset, int length) {
+
+		byte[] out = new byte[length + length / 255 + 16];
+		int op = 0;
+
+		int[] table = new int[1 << HASH_BITS];
+
+		int end = offset + length;
+		int limit = end - LAST_LITERALS - MIN_MATCH;
+
+		int anchor = offset;
+		int ip = offset;
+
+		while (ip < limit) {
+
+			int sequence = readInt(data, ip);
+			int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+
+			// the table stores positions shifted by one, zero means empty
+			int ref = table[hash] - 1 + offset;
+			table[hash] = ip - offset + 1;
+
+			if (ref < offset || ip - ref > MAX_OFFSET || readInt(data, ref) != sequence) {
+				ip++;
+				continue;
+			}
+
+			int match = MIN_MATCH;
+
+			while (ip + match < end - LAST_LITERALS && data[ref + match] == data[ip + match])
+				match++;
+
+			op = writeSequence(out, op, data, anchor, ip - anchor, ip - ref, match);
+
+			ip += match;
+			anchor = ip;
+
+		}
+
+		op = writeLiterals(out, op, data, anchor, end - anchor, 0);
+
+		byte[] result = new byte[op];
+		System.arraycopy(out, 0, result, 0, op);
+
+		return result;
+	}
+
+	public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+
+		byte[] out = new byte[originalLength];
+
+		int ip = offset, end = offset + length, op = 0;
+
+		try {
+
+			while (ip < end) {
+
+				int token = data[ip++] & 0xff;
+
+				int literals = token >>> 4;
+
+				if (literals == 15) {
+					int b;
+					do {
+						b = data[ip++] & 0xff;
+						literals += b;
+					} while (b == 255);
+				}
+
+				System.arraycopy(data, ip, out, op, literals);
+				ip += literals;
+				op += literals;
+
+				if (ip >= end)
+					break;
+
+				int distance = (data[ip] & 0xff) | ((data[ip + 1] & 0xff) << 8);
+				ip += 2;
+
+				int match = token & 0x0f;
+
+				if (match == 15) {
+					int b;
+					do {
+						b = data[ip++] & 0xff;
+						match += b;
+					} while (b == 255);
+				}
+
+				match += MIN_MATCH;
+
+				int ref = op - distance;
+
+				if (distance == 0 || ref < 0)
+					throw new IOException("Compressed data is corrupted");
+
+				// the match can overlap the output, so it is copied byte by byte
+				for (int i = 0; i < match; i++)
+					out[op++] = out[ref++];
+
+			}
+
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Compressed data is corrupted");
+		}
+
+		if (op != originalLength)
+			throw new IOException("Compressed data is truncated");
+
+		return out;
+	}
+
+	private static int writeSequence(byte[] out, int op, byte[] data, int start, int literals, int distance, int match) {
+
+		op = writeLiterals(out, op, data, start, literals, Math.min(match - MIN_MATCH, 15));
+
+		out[op++] = (byte) distance;
+		out[op++] = (byte) (distance >>> 8);
+
+		if (match - MIN_MATCH >= 15)
+			op = writeLength(out, op, match - MIN_MATCH - 15);
+
+		return op;
+	}
+
+	private static int writeLiterals(byte[] out, int op, byte[] data, int start, int literals, int matchToken) {
+
+		out[op++] = (byte) ((Math.min(literals, 15) << 4) | matchToken);
+
+		if (literals >= 15)
+			op = writeLength(out, op, literals - 15);
+
+		System.arraycopy(data, start, out, op, literals);
+
+		return op + literals;
+	}
+
+	private static int writeLength(byte[] out, int op, int length) {
+
+		while (length >= 255) {
+			out[op++] = (byte) 255;
+			length -= 255;
+		}
+
+		out[op++] = (byte) length;
+
+		return op;
+	}
+
+	private static int readInt(byte[] data, int i) {
+		return (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8)
+				| ((data[i + 2] & 0xff) << 16) | ((data[i + 3] & 0xff) << 24);
+	}
+
+}
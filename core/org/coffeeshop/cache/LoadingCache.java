@@ -0,0 +1,628 @@
+package org.coffeeshop.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadingCache is a facade over a {@link Cache} that loads the missing
+ * values with a {@link CacheLoader}. Concurrent requests for the same
+ * missing key are coalesced: only one thread runs the loader while the
+ * others wait for its result, so a popular key that misses is loaded once
+ * instead of once per caller.
+ *
+ * Optionally the values can be refreshed ahead of their expiry: once a value
+ * is older than the refresh threshold, the next read still returns it, but
+ * also schedules a reload in the background. The threshold should be shorter
+ * than the expiry time of the underlying cache, otherwise the value is gone
+ * before it can be refreshed.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class LoadingCache<K, V> {
+
+	private static final int REFRESH_QUEUE_SIZE = 1000;
+
+	private static ExecutorService defaultExecutor = null;
+
+	private static ExecutorService defaultRefreshExecutor = null;
+
+	/**
+	 * A pending load of a single key. The task removes itself from the
+	 * table of pending loads once it is done.
+	 */
+	private class LoadTask extends FutureTask<V> {
+
+		private K key;
+
+		public LoadTask(final K key, final CacheLoader<? super K, V> loader) {
+
+			super(new Callable<V>() {
+
+				public V call() throws Exception {
+
+					// the value may have been loaded in the meantime, contains()
+					// is used so that the statistics do not count a second miss
+					V value = cache.contains(key) ? cache.query(key) : null;
+
+					if (value == null) {
+
+						long start = System.nanoTime();
+
+						try {
+							value = loader.load(key);
+						} catch (Exception e) {
+							recordLoad(System.nanoTime() - start, false);
+							throw e;
+						}
+
+						recordLoad(System.nanoTime() - start, value != null);
+
+						if (value != null) {
+							cache.insert(key, value);
+							written(key);
+						}
+
+					}
+
+					return value;
+				}
+
+			});
+
+			this.key = key;
+
+		}
+
+		@Override
+		protected void done() {
+			loading.remove(key, this);
+		}
+
+		public void complete(V value) {
+			set(value);
+		}
+
+		public void fail(Throwable e) {
+			setException(e);
+		}
+
+	}
+
+	private Cache<K, V> cache;
+
+	private Executor executor;
+
+	private ConcurrentHashMap<K, LoadTask> loading = new ConcurrentHashMap<K, LoadTask>();
+
+	private volatile long refreshAfterWrite = 0;
+
+	private volatile Executor refreshExecutor = null;
+
+	private volatile Ticker ticker = Ticker.SYSTEM;
+
+	private ConcurrentHashMap<K, Long> writeTimes = new ConcurrentHashMap<K, Long>();
+
+	private ConcurrentHashMap<K, Boolean> refreshing = new ConcurrentHashMap<K, Boolean>();
+
+	private AtomicLong refreshCount = new AtomicLong(), refreshFailures = new AtomicLong(),
+		refreshRejections = new AtomicLong(), refreshTime = new AtomicLong();
+
+	/**
+	 * Constructs a new facade. The asynchronous loads are run by a shared
+	 * pool of daemon threads.
+	 *
+	 * @param cache the underlying cache
+	 */
+	public LoadingCache(Cache<K, V> cache) {
+		this(cache, null);
+	}
+
+	/**
+	 * Constructs a new facade.
+	 *
+	 * @param cache the underlying cache
+	 * @param executor executor used for the asynchronous loads
+	 */
+	public LoadingCache(Cache<K, V> cache, Executor executor) {
+
+		if (cache == null)
+			throw new IllegalArgumentException("Cache is required");
+
+		this.cache = cache;
+		this.executor = executor;
+
+	}
+
+	/**
+	 * Returns the underlying cache.
+	 *
+	 * @return the cache
+	 */
+	public Cache<K, V> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Enables the refresh of the values that are older than the given time.
+	 * The refreshes of all the facades are run by a shared daemon thread
+	 * with a bounded queue, the thread ends when there is nothing to
+	 * refresh for a minute.
+	 *
+	 * @param millis age of the value after which it is refreshed, zero
+	 * disables the refresh
+	 */
+	public synchronized void setRefreshAfterWrite(long millis) {
+
+		setRefreshAfterWrite(millis, refreshExecutor != null ? refreshExecutor : getRefreshExecutor());
+
+	}
+
+	/**
+	 * Enables the refresh of the values that are older than the given time.
+	 * The executor should be bounded, the refreshes that it rejects are
+	 * skipped and counted.
+	 *
+	 * @param millis age of the value after which it is refreshed, zero
+	 * disables the refresh
+	 * @param executor executor that runs the refreshes
+	 */
+	public synchronized void setRefreshAfterWrite(long millis, Executor executor) {
+
+		if (millis < 0)
+			throw new IllegalArgumentException("Refresh time must not be negative");
+
+		if (executor == null)
+			throw new IllegalArgumentException("Executor is required");
+
+		refreshAfterWrite = millis;
+		refreshExecutor = executor;
+
+	}
+
+	/**
+	 * Sets the source of time that is used to determine the age of the
+	 * values.
+	 *
+	 * @param ticker the ticker
+	 */
+	public void setTicker(Ticker ticker) {
+
+		if (ticker == null)
+			throw new IllegalArgumentException("Ticker is required");
+
+		this.ticker = ticker;
+
+	}
+
+	/**
+	 * Returns the number of completed refreshes (successful or not).
+	 *
+	 * @return number of refreshes
+	 */
+	public long getRefreshCount() {
+		return refreshCount.get();
+	}
+
+	/**
+	 * Returns the number of refreshes that failed because the loader has
+	 * thrown an exception or returned <code>null</code>. The stale value is
+	 * kept in that case.
+	 *
+	 * @return number of failed refreshes
+	 */
+	public long getRefreshFailureCount() {
+		return refreshFailures.get();
+	}
+
+	/**
+	 * Returns the number of refreshes that were not run because the
+	 * executor has rejected them.
+	 *
+	 * @return number of rejected refreshes
+	 */
+	public long getRefreshRejectedCount() {
+		return refreshRejections.get();
+	}
+
+	/**
+	 * Returns the total time spent in the refreshes.
+	 *
+	 * @return time in nanoseconds
+	 */
+	public long getTotalRefreshTime() {
+		return refreshTime.get();
+	}
+
+	/**
+	 * Returns the average time of a refresh.
+	 *
+	 * @return time in nanoseconds or zero if there was no refresh yet
+	 */
+	public double getAverageRefreshTime() {
+		long count = refreshCount.get();
+		return count == 0 ? 0 : (double) refreshTime.get() / count;
+	}
+
+	/**
+	 * Returns the value for the key. If the value is not in the cache, it
+	 * is loaded using the loader and inserted into the cache. If another
+	 * thread is already loading the same key, the method waits for its
+	 * result instead.
+	 *
+	 * @param key the key
+	 * @param loader the loader used if the value is missing
+	 * @return the value or <code>null</code> if the loader returned none
+	 * @throws ExecutionException if the loader has thrown an exception
+	 */
+	public V get(K key, CacheLoader<? super K, V> loader) throws ExecutionException {
+
+		V value = cache.query(key);
+
+		if (value != null) {
+			refreshIfStale(key, loader);
+			return value;
+		}
+
+		LoadTask task = new LoadTask(key, loader);
+		LoadTask pending = loading.putIfAbsent(key, task);
+
+		if (pending == null) {
+			task.run();
+			pending = task;
+		}
+
+		return waitFor(pending);
+	}
+
+	/**
+	 * Returns the value for the key without blocking. If the value is
+	 * missing, the load is started in the background (unless it is already
+	 * running).
+	 *
+	 * @param key the key
+	 * @param loader the loader used if the value is missing
+	 * @return future result of the lookup
+	 */
+	public Future<V> getAsync(K key, CacheLoader<? super K, V> loader) {
+
+		V value = cache.query(key);
+
+		if (value != null) {
+			refreshIfStale(key, loader);
+			LoadTask task = new LoadTask(key, loader);
+			task.complete(value);
+			return task;
+		}
+
+		LoadTask task = new LoadTask(key, loader);
+		LoadTask pending = loading.putIfAbsent(key, task);
+
+		if (pending != null)
+			return pending;
+
+		getExecutor().execute(task);
+
+		return task;
+	}
+
+	/**
+	 * Returns the values for several keys. All the keys that are missing
+	 * and not being loaded by another thread are passed to a single
+	 * {@link CacheLoader#loadAll(Collection)} call.
+	 *
+	 * @param keys the keys
+	 * @param loader the loader used for the missing values
+	 * @return map of the keys to their values, the keys without a value are
+	 * not included
+	 * @throws ExecutionException if the loader has thrown an exception
+	 */
+	public Map<K, V> getAll(Collection<? extends K> keys,
+			CacheLoader<? super K, V> loader) throws ExecutionException {
+
+		Map<K, V> result = new LinkedHashMap<K, V>();
+		Map<K, LoadTask> pending = new LinkedHashMap<K, LoadTask>();
+		Map<K, LoadTask> claimed = new LinkedHashMap<K, LoadTask>();
+
+		for (K key : keys) {
+
+			if (result.containsKey(key) || pending.containsKey(key))
+				continue;
+
+			V value = cache.query(key);
+
+			if (value != null) {
+				refreshIfStale(key, loader);
+				result.put(key, value);
+				continue;
+			}
+
+			LoadTask task = new LoadTask(key, loader);
+			LoadTask other = loading.putIfAbsent(key, task);
+
+			if (other == null) {
+				claimed.put(key, task);
+				pending.put(key, task);
+			} else {
+				pending.put(key, other);
+			}
+
+		}
+
+		if (!claimed.isEmpty()) {
+
+			long start = System.nanoTime();
+
+			try {
+
+				Map<? super K, V> values = loader.loadAll(new ArrayList<K>(claimed.keySet()));
+
+				recordLoad(System.nanoTime() - start, true);
+
+				Map<K, V> loaded = new LinkedHashMap<K, V>();
+
+				for (K key : claimed.keySet()) {
+
+					V value = values == null ? null : values.get(key);
+
+					if (value != null)
+						loaded.put(key, value);
+
+				}
+
+				// the values are inserted before the waiting threads are
+				// released
+				if (cache instanceof BulkCache) {
+					((BulkCache<K, V>) cache).insertAll(loaded);
+				} else {
+					for (Map.Entry<K, V> e : loaded.entrySet())
+						cache.insert(e.getKey(), e.getValue());
+				}
+
+				for (Map.Entry<K, LoadTask> e : claimed.entrySet()) {
+
+					V value = loaded.get(e.getKey());
+
+					if (value != null)
+						written(e.getKey());
+
+					e.getValue().complete(value);
+
+				}
+
+			} catch (Throwable e) {
+
+				recordLoad(System.nanoTime() - start, false);
+
+				for (LoadTask task : claimed.values())
+					task.fail(e);
+
+			}
+
+		}
+
+		for (Map.Entry<K, LoadTask> e : pending.entrySet()) {
+
+			V value = waitFor(e.getValue());
+
+			if (value != null)
+				result.put(e.getKey(), value);
+
+		}
+
+		return result;
+	}
+
+	/**
+	 * Schedules a background reload of the value if it is older than the
+	 * refresh threshold and it is not being refreshed already.
+	 */
+	private void refreshIfStale(final K key, final CacheLoader<? super K, V> loader) {
+
+		if (refreshAfterWrite <= 0)
+			return;
+
+		Long time = writeTimes.get(key);
+
+		if (time == null || ticker.time() - time.longValue() < refreshAfterWrite)
+			return;
+
+		if (refreshing.putIfAbsent(key, Boolean.TRUE) != null)
+			return;
+
+		Runnable refresh = new Runnable() {
+
+			public void run() {
+
+				long start = System.nanoTime();
+				boolean success = false;
+
+				try {
+
+					V value = loader.load(key);
+
+					success = value != null;
+
+					if (value != null) {
+						replace(key, value);
+						written(key);
+					} else {
+						refreshFailures.incrementAndGet();
+					}
+
+				} catch (Throwable e) {
+
+					refreshFailures.incrementAndGet();
+
+				} finally {
+
+					long time = System.nanoTime() - start;
+
+					recordLoad(time, success);
+					refreshTime.addAndGet(time);
+					refreshCount.incrementAndGet();
+					refreshing.remove(key);
+
+				}
+
+			}
+
+		};
+
+		try {
+
+			refreshExecutor.execute(refresh);
+
+		} catch (RejectedExecutionException e) {
+
+			refreshRejections.incrementAndGet();
+			refreshing.remove(key);
+
+		}
+
+	}
+
+	/**
+	 * Stores a refreshed value. The caches derived from {@link AbstractCache}
+	 * swap the value atomically, so that the readers never miss the key. The
+	 * other caches do not overwrite the existing values, the old value has
+	 * to be removed first.
+	 */
+	@SuppressWarnings("unchecked")
+	private void replace(K key, V value) {
+
+		if (cache instanceof AbstractCache) {
+
+			// the old value may have been evicted in the meantime
+			if (!((AbstractCache<K, V>) cache).replace(key, value))
+				cache.insert(key, value);
+
+			return;
+		}
+
+		cache.remove(key);
+		cache.insert(key, value);
+
+	}
+
+	/**
+	 * Records the time when the value for the key was loaded. The records
+	 * of the keys that have left the cache are pruned once they outnumber
+	 * the entries of the cache.
+	 */
+	private void written(K key) {
+
+		if (refreshAfterWrite <= 0)
+			return;
+
+		writeTimes.put(key, Long.valueOf(ticker.time()));
+
+		if (writeTimes.size() > 2 * cache.size() + 16) {
+
+			for (Iterator<K> i = writeTimes.keySet().iterator(); i.hasNext();)
+				if (!cache.contains(i.next()))
+					i.remove();
+
+		}
+
+	}
+
+	/**
+	 * Reports the load to the statistics of the underlying cache.
+	 */
+	private void recordLoad(long nanos, boolean success) {
+
+		if (cache instanceof AbstractCache)
+			((AbstractCache<?, ?>) cache).recordLoad(nanos, success);
+
+	}
+
+	private V waitFor(Future<V> future) throws ExecutionException {
+
+		boolean interrupted = false;
+
+		try {
+
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+	}
+
+	private static Executor getRefreshExecutor() {
+
+		synchronized (LoadingCache.class) {
+
+			if (defaultRefreshExecutor == null) {
+				// without core threads the thread is only kept while there
+				// are refreshes to run
+				defaultRefreshExecutor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), new ThreadFactory() {
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Cache refresh");
+						thread.setDaemon(true);
+						return thread;
+					}
+
+				});
+			}
+
+			return defaultRefreshExecutor;
+
+		}
+
+	}
+
+	private Executor getExecutor() {
+
+		if (executor != null)
+			return executor;
+
+		synchronized (LoadingCache.class) {
+
+			if (defaultExecutor == null) {
+				defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Cache loader");
+						thread.setDaemon(true);
+						return thread;
+					}
+
+				});
+			}
+
+			return defaultExecutor;
+
+		}
+
+	}
+
+}
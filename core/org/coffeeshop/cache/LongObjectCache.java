@@ -0,0 +1,70 @@
+package org.coffeeshop.cache;
+
+/**
+ * A cache with <code>long</code> keys. The keys are not boxed and the entries
+ * are not wrapped in objects, see {@link PrimitiveKeyCache}. The methods
+ * that take a Long key are provided for the compatibility with the
+ * {@link Cache} interface.
+ */
+public class LongObjectCache<V> extends PrimitiveKeyCache<Long, V> {
+
+	/**
+	 * Constructs a new cache.
+	 *
+	 * @param objectLimit maximum number of objects in the cache
+	 */
+	public LongObjectCache(int objectLimit) {
+		super(objectLimit);
+	}
+
+	/**
+	 * Searches for the object by its key.
+	 *
+	 * @param key the key to search with
+	 * @return the object or <code>null</code> if no object is found
+	 */
+	public V query(long key) {
+		return get(key);
+	}
+
+	/**
+	 * Inserts an object to the cache. If an object with the same key already
+	 * exists, nothing is done.
+	 *
+	 * @param key the key of the object
+	 * @param object the object itself
+	 */
+	public void insert(long key, V object) {
+		put(key, object);
+	}
+
+	/**
+	 * Replaces the object of a key that is in the cache.
+	 *
+	 * @param key the key of the object
+	 * @param object the new object
+	 * @return <code>false</code> if the key is not in the cache
+	 */
+	public boolean replace(long key, V object) {
+		return swap(key, object);
+	}
+
+	public boolean contains(long key) {
+		return containsKey(key);
+	}
+
+	public V remove(long key) {
+		return delete(key);
+	}
+
+	@Override
+	protected long toPrimitive(Long key) {
+		return key;
+	}
+
+	@Override
+	protected Long toObject(long key) {
+		return key;
+	}
+
+}
@@ -1,84 +1,133 @@
 package org.coffeeshop.cache;
 
-import java.util.PriorityQueue;
-import java.util.TreeMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
  * ObjectCache provides a caching mechanism for retrieval operations that would
  * otherwise require some time to complete. The resources are identified by a
  * string key that is usually an URL of the resource.
- * 
+ *
+ * The objects are kept in a hash map, the choice of the object that is removed
+ * when the cache is full is delegated to an {@link EvictionPolicy}. The
+ * default policy is {@link LRUPolicy}, so the lookup, the insertion and the
+ * removal of the least recently used object all take constant time.
+ *
+ * Because the objects are kept in a hash map, the keys are matched by their
+ * {@link Object#equals(Object)} and {@link Object#hashCode()} methods, which
+ * must be consistent with each other. The earlier versions of the cache used
+ * a sorted map and compared the keys with {@link Comparable}; the keys that
+ * are only comparable, but do not implement the two methods, are never
+ * found.
+ *
+ * The objects can also expire a fixed time after they were inserted (time to
+ * live) or after they were last accessed (time to idle). An expired object is
+ * never returned. It is removed either when it is queried or when a timer
+ * wheel, that is advanced on every insertion and by {@link #cleanUp()}, finds
+ * that its deadline has passed.
+ *
+ * By default the cache limits the number of objects. If a {@link Weigher} is
+ * given, the limit is applied to the sum of the weights of the objects
+ * instead, so that the objects of very different sizes can share a cache.
+ *
+ * The objects can be held by soft or weak references (see
+ * {@link #setValueStrength(ReferenceStrength)}), so that large objects can
+ * be reclaimed by the garbage collector under memory pressure.
+ *
  * @author lukacu
  */
 public class ObjectCache<K, V> extends AbstractCache<K, V> {
 
 	/**
-	 * Maximum capacity of the cache
+	 * Maximum capacity of the cache (number of objects or total weight)
 	 */
-	private int limit;
+	private long limit;
 
-	private PriorityQueue<ObjectWrapper> orderedAccess;
+	private long weight = 0;
 
-	private TreeMap<K, ObjectWrapper> orderedContainer;
+	private Weigher<? super K, ? super V> weigher;
+
+	private EvictionPolicy<K> policy;
+
+	private HashMap<K, ObjectWrapper> orderedContainer;
+
+	private long expireAfterWrite = 0, expireAfterAccess = 0;
+
+	private Ticker ticker = Ticker.SYSTEM;
+
+	private TimerWheel<K> wheel = null;
+
+	private ArrayList<TimerWheel.Node<K>> expired = new ArrayList<TimerWheel.Node<K>>();
+
+	private ReferenceStrength valueStrength = ReferenceStrength.STRONG;
+
+	private ReferenceQueue<V> referenceQueue = new ReferenceQueue<V>();
 
 	/**
-	 * Internal wrapper of the objects that records the time
-	 * 
+	 * Internal wrapper of the objects that links the object into the access
+	 * list
+	 *
 	 * @author lukacu
 	 * @see ObjectCache
 	 */
-	private class ObjectWrapper implements Comparable<ObjectWrapper> {
-
-		private long timestamp;
+	private class ObjectWrapper extends CacheEntry<K> {
 
 		private V object;
 
+		private Reference<V> reference = null;
+
 		private K key;
 
+		private long written, accessed, timeToLive, timeToIdle;
+
+		private long weight = 1;
+
+		private ExpiryNode timer = null;
+
 		/**
-		 * Construct a new wrapper for the object. The wrapper stores the key,
-		 * the object and the time of the last access to the object.
-		 * 
-		 * The constructor sets the time-stamp of the last access to the time of
-		 * object construction.
-		 * 
+		 * Construct a new wrapper for the object. The wrapper stores the key
+		 * and the object.
+		 *
 		 * @param key
 		 *            key of the object
 		 * @param o
 		 *            object to wrap
 		 */
 		public ObjectWrapper(K key, V o) {
-			object = o;
 			this.key = key;
-			timestamp = System.currentTimeMillis();
-		}
-
-		/**
-		 * 
-		 * @param o
-		 * @return
-		 * 
-		 * @see Comparable#compareTo(T)
-		 */
-		public int compareTo(ObjectWrapper o) {
 
-			return (o.timestamp < timestamp ? 1
-					: o.timestamp > timestamp ? -1 : 0);
+			switch (valueStrength) {
+			case SOFT:
+				reference = new SoftValue(o, this);
+				break;
+			case WEAK:
+				reference = new WeakValue(o, this);
+				break;
+			default:
+				object = o;
+			}
 		}
 
 		/**
 		 * Returns the object that is wrapped in this wrapper
-		 * 
-		 * @return
+		 *
+		 * @return the object or <code>null</code> if it was reclaimed by the
+		 * garbage collector
 		 */
 		public V getObject() {
-			return this.object;
+			return reference == null ? this.object : reference.get();
 		}
 
 		/**
 		 * Returns the key of the object
-		 * 
+		 *
 		 * @return the key
 		 */
 		public K getKey() {
@@ -86,28 +135,217 @@ public class ObjectCache<K, V> extends AbstractCache<K, V> {
 		}
 
 		/**
-		 * Updates the time-stamp to the current time.
-		 * 
+		 * Returns the time when the object expires
+		 *
+		 * @return the deadline or <code>Long.MAX_VALUE</code> if the object
+		 * does not expire
 		 */
-		public void touch() {
-			timestamp = System.currentTimeMillis();
+		public long getDeadline() {
+
+			long deadline = Long.MAX_VALUE;
+
+			if (timeToLive > 0)
+				deadline = written + timeToLive;
+
+			if (timeToIdle > 0)
+				deadline = Math.min(deadline, accessed + timeToIdle);
+
+			return deadline;
+		}
+
+	}
+
+	/**
+	 * A reference to a value that knows the entry it belongs to.
+	 */
+	private static interface ValueReference<K> {
+
+		public CacheEntry<K> getEntry();
+
+	}
+
+	private class SoftValue extends SoftReference<V> implements ValueReference<K> {
+
+		private ObjectWrapper wrapper;
+
+		public SoftValue(V value, ObjectWrapper wrapper) {
+			super(value, referenceQueue);
+			this.wrapper = wrapper;
+		}
+
+		public CacheEntry<K> getEntry() {
+			return wrapper;
+		}
+
+	}
+
+	private class WeakValue extends WeakReference<V> implements ValueReference<K> {
+
+		private ObjectWrapper wrapper;
+
+		public WeakValue(V value, ObjectWrapper wrapper) {
+			super(value, referenceQueue);
+			this.wrapper = wrapper;
 		}
+
+		public CacheEntry<K> getEntry() {
+			return wrapper;
+		}
+
+	}
+
+	/**
+	 * Entry of the timer wheel that belongs to an object wrapper.
+	 */
+	private class ExpiryNode extends TimerWheel.Node<K> {
+
+		private ObjectWrapper wrapper;
+
+		public ExpiryNode(ObjectWrapper wrapper) {
+			this.wrapper = wrapper;
+		}
+
+		public K getKey() {
+			return wrapper.getKey();
+		}
+
 	}
 
 	public ObjectCache(int objectLimit) {
+		this(objectLimit, new LRUPolicy<K>());
+	}
+
+	/**
+	 * Constructs a new cache that uses the given eviction policy.
+	 *
+	 * @param objectLimit maximum number of objects in the cache
+	 * @param policy eviction policy, must not be shared with other caches
+	 */
+	public ObjectCache(int objectLimit, EvictionPolicy<K> policy) {
+		this(objectLimit, null, policy);
+	}
+
+	/**
+	 * Constructs a new cache that limits the total weight of the objects.
+	 *
+	 * @param weightLimit maximum total weight of the objects
+	 * @param weigher computes the weight of the objects
+	 */
+	public ObjectCache(long weightLimit, Weigher<? super K, ? super V> weigher) {
+		this(weightLimit, weigher, new LRUPolicy<K>());
+	}
+
+	/**
+	 * Constructs a new cache that limits the total weight of the objects
+	 * and uses the given eviction policy.
+	 *
+	 * @param weightLimit maximum total weight of the objects
+	 * @param weigher computes the weight of the objects, if <code>null</code>
+	 * every object weights one unit
+	 * @param policy eviction policy, must not be shared with other caches
+	 */
+	public ObjectCache(long weightLimit, Weigher<? super K, ? super V> weigher,
+			EvictionPolicy<K> policy) {
 
-		limit = objectLimit;
+		if (policy == null)
+			throw new IllegalArgumentException("Eviction policy is required");
 
-		orderedAccess = new PriorityQueue<ObjectWrapper>();
+		limit = weightLimit;
 
-		orderedContainer = new TreeMap<K, ObjectWrapper>();
+		this.weigher = weigher;
 
+		this.policy = policy;
+
+		orderedContainer = new HashMap<K, ObjectWrapper>();
+
+	}
+
+	/**
+	 * Sets the time after which the newly inserted objects expire.
+	 *
+	 * @param millis time to live in milliseconds, zero disables the expiry
+	 */
+	public synchronized void setExpireAfterWrite(long millis) {
+
+		if (millis < 0)
+			throw new IllegalArgumentException("Time to live must not be negative");
+
+		expireAfterWrite = millis;
+
+	}
+
+	public synchronized long getExpireAfterWrite() {
+		return expireAfterWrite;
+	}
+
+	/**
+	 * Sets the time after the last access after which an object expires.
+	 * The setting applies to the objects inserted after the change.
+	 *
+	 * @param millis time to idle in milliseconds, zero disables the expiry
+	 */
+	public synchronized void setExpireAfterAccess(long millis) {
+
+		if (millis < 0)
+			throw new IllegalArgumentException("Time to idle must not be negative");
+
+		expireAfterAccess = millis;
+
+	}
+
+	public synchronized long getExpireAfterAccess() {
+		return expireAfterAccess;
+	}
+
+	/**
+	 * Sets the source of time used for the expiry. The ticker can only be
+	 * changed while the cache is empty.
+	 *
+	 * @param ticker the ticker
+	 */
+	public synchronized void setTicker(Ticker ticker) {
+
+		if (ticker == null)
+			throw new IllegalArgumentException("Ticker is required");
+
+		if (!orderedContainer.isEmpty())
+			throw new IllegalStateException("Ticker can only be changed on an empty cache");
+
+		this.ticker = ticker;
+		this.wheel = null;
+
+	}
+
+	/**
+	 * Sets the strength of the references to the objects. With the soft or
+	 * weak references the garbage collector can reclaim the objects, the
+	 * entries of the reclaimed objects are removed from the cache on the
+	 * next write (or when they are queried). The strength can only be
+	 * changed while the cache is empty.
+	 *
+	 * @param strength the strength of the references
+	 */
+	public synchronized void setValueStrength(ReferenceStrength strength) {
+
+		if (strength == null)
+			throw new IllegalArgumentException("Strength is required");
+
+		if (!orderedContainer.isEmpty())
+			throw new IllegalStateException("Value strength can only be changed on an empty cache");
+
+		this.valueStrength = strength;
+
+	}
+
+	public synchronized ReferenceStrength getValueStrength() {
+		return valueStrength;
 	}
 
 	/**
 	 * Searches for the object by its key. If the object is found, the method
-	 * also updates its access time.
-	 * 
+	 * also notifies the eviction policy about the access. An expired object
+	 * is removed and not returned.
+	 *
 	 * @param key
 	 *            the key to search with
 	 * @return the object or <code>null</code> if no object is found
@@ -116,24 +354,54 @@ public class ObjectCache<K, V> extends AbstractCache<K, V> {
 
 		if (key == null)
 			return null;
-		
-		ObjectWrapper ow = (ObjectWrapper) orderedContainer.get(key);
 
-		if (ow == null)
+		ObjectWrapper ow = orderedContainer.get(key);
+
+		if (ow == null) {
+			recordMiss();
+			return null;
+		}
+
+		if (ow.timer != null) {
+
+			long now = ticker.time();
+
+			if (ow.getDeadline() <= now) {
+				removeEntry(ow, RemovalCause.EXPIRED);
+				recordMiss();
+				fireCacheUpdate();
+				return null;
+			}
+
+			ow.accessed = now;
+
+			if (ow.timeToIdle > 0) {
+				ow.timer.deadline = ow.getDeadline();
+				wheel.schedule(ow.timer);
+			}
+
+		}
+
+		V object = ow.getObject();
+
+		if (object == null) {
+			removeEntry(ow, RemovalCause.COLLECTED);
+			recordMiss();
+			fireCacheUpdate();
 			return null;
+		}
+
+		policy.accessed(ow);
 
-		// update the cache access list
-		orderedAccess.remove(ow);
-		ow.touch();
-		orderedAccess.add(ow);
+		recordHit();
 
-		return ow.getObject();
+		return object;
 	}
-	
+
 	/**
 	 * Inserts an object to the cache. If the same (with same key) object
 	 * already exists, nothing is done.
-	 * 
+	 *
 	 * @param key
 	 *            a key that is used to identify the object
 	 * @param o
@@ -141,104 +409,386 @@ public class ObjectCache<K, V> extends AbstractCache<K, V> {
 	 */
 	public synchronized void insert(K key, V o) {
 
-		// prevent duplicates
-		if (contains(key))
+		insert(key, o, expireAfterWrite);
+
+	}
+
+	/**
+	 * Inserts an object to the cache with its own time to live. If the same
+	 * (with same key) object already exists, nothing is done.
+	 *
+	 * @param key
+	 *            a key that is used to identify the object
+	 * @param o
+	 *            the object itself
+	 * @param timeToLive
+	 *            time to live of the object in milliseconds, zero means that
+	 *            the object does not expire after the write
+	 */
+	public synchronized void insert(K key, V o, long timeToLive) {
+
+		cleanUp();
+
+		if (!put(key, o, timeToLive))
 			return;
 
-		ObjectWrapper ow = new ObjectWrapper(key, o);
+		performPurge();
 
-		orderedAccess.add(ow);
+		fireCacheUpdate();
 
-		orderedContainer.put(key, ow);
+	}
+
+	/**
+	 * Replaces the object of a key that is in the cache. The new object
+	 * keeps the time to live of the old one, counted from now.
+	 *
+	 * @param key
+	 *            the key of the object
+	 * @param o
+	 *            the new object
+	 * @return <code>true</code> if the object was replaced,
+	 *         <code>false</code> if the key is not in the cache or its object
+	 *         has expired or was reclaimed
+	 */
+	@Override
+	public synchronized boolean replace(K key, V o) {
+
+		if (key == null)
+			return false;
+
+		ObjectWrapper ow = orderedContainer.get(key);
+
+		if (ow == null || isExpired(ow) || ow.getObject() == null)
+			return false;
+
+		release(ow);
+
+		put(key, o, ow.timeToLive);
 
 		performPurge();
-		
+
 		fireCacheUpdate();
-		
+
+		return true;
+
 	}
 
 	/**
-	 * Performs a Least Recently Used picking and removes the suitable object
-	 * from the cache.
+	 * Searches for the objects while holding the lock only once.
+	 *
+	 * @param keys the keys to search with
+	 * @return the objects that were found, mapped by their keys
 	 */
-	private synchronized boolean performPurge() {
+	@Override
+	public synchronized Map<K, V> queryAll(Collection<? extends K> keys) {
+		return super.queryAll(keys);
+	}
 
-		return performPurge(orderedContainer.size() - limit);
+	/**
+	 * Inserts the objects while holding the lock only once. The cache is
+	 * purged after all the objects are inserted.
+	 *
+	 * @param objects the objects mapped by their keys
+	 */
+	@Override
+	public void insertAll(Map<? extends K, ? extends V> objects) {
+
+		beginBatch();
+
+		try {
+
+			synchronized (this) {
+
+				cleanUp();
+
+				for (Map.Entry<? extends K, ? extends V> e : objects.entrySet())
+					put(e.getKey(), e.getValue(), expireAfterWrite);
+
+				performPurge();
+
+				fireCacheUpdate();
+
+			}
+
+		} finally {
+			endBatch();
+		}
 
 	}
 
 	/**
-	 * Performs a Least Recently Used picking and removes the cpecified number
-	 * of object from the cache.
-	 * 
-	 * @param purge
-	 *            number of elements to remove
+	 * Removes the objects while holding the lock only once.
+	 *
+	 * @param keys the keys of the removed objects
 	 */
-	private synchronized boolean performPurge(int purge) {
+	@Override
+	public void removeAll(Collection<? extends K> keys) {
 
-		if (purge < 1)
-			return false;
+		beginBatch();
+
+		try {
+
+			synchronized (this) {
+
+				for (K key : keys)
+					remove(key);
+
+			}
+
+		} finally {
+			endBatch();
+		}
+
+	}
+
+	/**
+	 * Adds the object without purging the cache.
+	 *
+	 * @return <code>false</code> if the key is already in the cache
+	 */
+	private boolean put(K key, V o, long timeToLive) {
+
+		ObjectWrapper ow = orderedContainer.get(key);
+
+		// prevent duplicates, but replace the expired objects and the
+		// objects that were reclaimed by the garbage collector
+		if (ow != null) {
+
+			boolean collected = ow.getObject() == null;
+
+			if (!collected && !isExpired(ow))
+				return false;
+
+			removeEntry(ow, collected ? RemovalCause.COLLECTED : RemovalCause.EXPIRED);
+
+		}
+
+		ow = new ObjectWrapper(key, o);
+
+		if (weigher != null) {
+
+			ow.weight = weigher.weigh(key, o);
+
+			if (ow.weight < 0)
+				throw new IllegalArgumentException("Weight must not be negative");
+
+		}
+
+		ow.timeToLive = Math.max(0, timeToLive);
+		ow.timeToIdle = expireAfterAccess;
+
+		if (ow.timeToLive > 0 || ow.timeToIdle > 0) {
+
+			long now = ticker.time();
+
+			if (wheel == null)
+				wheel = new TimerWheel<K>(now);
+
+			ow.written = now;
+			ow.accessed = now;
+			ow.timer = new ExpiryNode(ow);
+			ow.timer.deadline = ow.getDeadline();
+			wheel.schedule(ow.timer);
+
+		}
+
+		orderedContainer.put(key, ow);
+		weight += ow.weight;
+
+		policy.inserted(ow);
+
+		fireInserted(key);
+
+		return true;
+
+	}
+
+	/**
+	 * Removes the objects whose deadline has passed and the objects that
+	 * were reclaimed by the garbage collector. The method is called on every
+	 * insertion, but it can also be called periodically to release the
+	 * expired objects sooner.
+	 *
+	 * @return number of removed objects
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized int cleanUp() {
+
+		int count = 0;
+
+		Reference<? extends V> reference;
+
+		while ((reference = referenceQueue.poll()) != null) {
+
+			ObjectWrapper ow = (ObjectWrapper) ((ValueReference<K>) reference).getEntry();
+
+			// the entry may have been removed already
+			if (orderedContainer.get(ow.getKey()) == ow) {
+				removeEntry(ow, RemovalCause.COLLECTED);
+				count++;
+			}
+
+		}
+
+		if (wheel != null) {
+
+			wheel.advance(ticker.time(), expired);
+
+			count += expired.size();
+
+			for (TimerWheel.Node<K> node : expired)
+				removeEntry(((ExpiryNode) node).wrapper, RemovalCause.EXPIRED);
+
+			expired.clear();
+
+		}
+
+		if (count > 0)
+			fireCacheUpdate();
+
+		return count;
+	}
+
+	/**
+	 * Removes the objects chosen by the eviction policy until the cache
+	 * is within its limit.
+	 */
+	@SuppressWarnings("unchecked")
+	private synchronized boolean performPurge() {
 
 		boolean change = false;
-		
-		for (int i = 0; i < purge; i++) {
-			ObjectWrapper ow = orderedAccess.poll();
 
-			if (ow == null) 
+		while (weight > limit) {
+
+			ObjectWrapper ow = (ObjectWrapper) policy.victim();
+
+			if (ow == null)
 				break;
 
-			orderedContainer.remove(ow.getKey());
+			removeEntry(ow, RemovalCause.SIZE);
 			change = true;
-			
+
 		}
 
 		return change;
-		
+
+	}
+
+	private void removeEntry(ObjectWrapper ow, RemovalCause cause) {
+
+		recordRemoval(cause, 1);
+
+		fireRemoved(ow.getKey(), cause);
+
+		release(ow);
+
+	}
+
+	/**
+	 * Takes the entry out of the cache without recording the removal.
+	 */
+	private void release(ObjectWrapper ow) {
+
+		policy.removed(ow);
+		orderedContainer.remove(ow.getKey());
+		weight -= ow.weight;
+
+		if (ow.timer != null)
+			wheel.cancel(ow.timer);
+
 	}
 
 	public synchronized void flush() {
-		
-		orderedAccess.clear();
+
+		recordRemoval(RemovalCause.EXPLICIT, orderedContainer.size());
+
+		policy.clear();
 		orderedContainer.clear();
-		
+		weight = 0;
+
+		if (wheel != null)
+			wheel.clear();
+
+		fireFlushed();
+
 		fireCacheUpdate();
-		
+
 	}
-	
+
 	public synchronized int size() {
-		return orderedAccess.size();
+		return orderedContainer.size();
 	}
 
+	/**
+	 * Returns the capacity of the cache, that is the maximum number of
+	 * objects or the maximum total weight if the cache uses a weigher.
+	 *
+	 * @return the capacity
+	 */
 	public int capacity() {
+		return (int) Math.min(limit, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the maximum total weight of the objects.
+	 *
+	 * @return the weight limit
+	 */
+	public long getWeightLimit() {
 		return limit;
 	}
-	
+
+	/**
+	 * Returns the total weight of the objects in the cache (the number of
+	 * the objects if the cache does not use a weigher).
+	 *
+	 * @return the current weight
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
 	public synchronized boolean contains(K key) {
 		if (key == null)
 			return false;
-		
-		ObjectWrapper ow = (ObjectWrapper) orderedContainer.get(key);
 
-		return (ow != null);
+		ObjectWrapper ow = orderedContainer.get(key);
+
+		if (ow == null)
+			return false;
+
+		return !isExpired(ow) && ow.getObject() != null;
 	}
 
 	public synchronized V remove(K key) {
-	
+
 		if (key == null)
 			return null;
-		
-		ObjectWrapper ow = orderedContainer.remove(key);
+
+		ObjectWrapper ow = orderedContainer.get(key);
 
 		if (ow == null)
 			return null;
 
-		// update the cache access list
-		orderedAccess.add(ow);
+		boolean stale = isExpired(ow);
+
+		V object = ow.getObject();
+
+		if (stale)
+			removeEntry(ow, RemovalCause.EXPIRED);
+		else if (object == null)
+			removeEntry(ow, RemovalCause.COLLECTED);
+		else
+			removeEntry(ow, RemovalCause.EXPLICIT);
 
 		fireCacheUpdate();
-		
-		return ow.getObject();
-		
+
+		return stale ? null : object;
+
+	}
+
+	private boolean isExpired(ObjectWrapper ow) {
+		return ow.timer != null && ow.getDeadline() <= ticker.time();
 	}
 
 }
@@ -0,0 +1,420 @@
+package org.coffeeshop.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A {@link DiskStore} that keeps the records outside of the Java heap, in
+ * direct byte buffers. Set as the disk store of a {@link DataCache}, it
+ * forms a tier between the heap and the disk, so that large binary data
+ * does not burden the garbage collector.
+ *
+ * The memory is allocated in slabs of a fixed size. Each slab is split into
+ * chunks of a single size class (powers of two), a record occupies the
+ * smallest chunk it fits into. Freed chunks are kept in a free list of their
+ * size class. Once the memory limit is reached and there is no free chunk
+ * of the required size, the least recently used record of the size class
+ * is moved to the overflow store (usually a {@link SegmentStore}). Records
+ * that are larger than a slab are written to the overflow store directly.
+ *
+ * A slab whose chunks are all free is returned to a pool and can be split
+ * again for any size class. A slab that holds at least one record stays
+ * with its size class, so after the sizes of the records change, a size
+ * class without slabs of its own may overflow while the slabs of the other
+ * classes are mostly empty. If the direct memory runs out before the
+ * capacity is reached, the store behaves as if the capacity was reached.
+ */
+public class OffHeapStore implements DiskStore {
+
+	private static final int MINIMUM_CHUNK = 64;
+
+	private static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+	/**
+	 * A record of the store. The records held in the memory are kept in an
+	 * access list of their size class.
+	 */
+	private static class Block extends CacheEntry<Long> {
+
+		private long id;
+
+		private int length;
+
+		private int sizeClass = -1;
+
+		private long address;
+
+		private long overflowId = -1;
+
+		public Block(long id, int length) {
+			this.id = id;
+			this.length = length;
+		}
+
+		public Long getKey() {
+			return id;
+		}
+
+	}
+
+	/**
+	 * A slab of the memory and the number of its chunks that hold a record.
+	 */
+	private static class Slab {
+
+		private ByteBuffer buffer;
+
+		private int live = 0;
+
+		public Slab(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+	}
+
+	/**
+	 * A stack of free chunk addresses.
+	 */
+	private static class FreeList {
+
+		private long[] addresses = new long[16];
+
+		private int size = 0;
+
+		public void push(long address) {
+
+			if (size == addresses.length) {
+				long[] tmp = new long[size * 2];
+				System.arraycopy(addresses, 0, tmp, 0, size);
+				addresses = tmp;
+			}
+
+			addresses[size++] = address;
+
+		}
+
+		public long pop() {
+			return size == 0 ? -1 : addresses[--size];
+		}
+
+		/**
+		 * Removes the addresses of the chunks of a slab.
+		 */
+		public void removeSlab(int slab) {
+
+			int kept = 0;
+
+			for (int i = 0; i < size; i++)
+				if ((int) (addresses[i] >>> 32) != slab)
+					addresses[kept++] = addresses[i];
+
+			size = kept;
+
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+	}
+
+	private int slabSize;
+
+	private int maximumSlabs;
+
+	private ArrayList<Slab> slabs = new ArrayList<Slab>();
+
+	// indices of the slabs without any records
+	private FreeList freeSlabs = new FreeList();
+
+	private FreeList[] freeLists;
+
+	private AccessList<Block>[] used;
+
+	private HashMap<Long, Block> index = new HashMap<Long, Block>();
+
+	private DiskStore overflow;
+
+	private long idCounter = 0;
+
+	private long usage = 0;
+
+	public OffHeapStore(long capacity, DiskStore overflow) {
+		this(capacity, DEFAULT_SLAB_SIZE, overflow);
+	}
+
+	/**
+	 * Constructs a new store.
+	 *
+	 * @param capacity maximum size of the memory allocated by the store
+	 * @param slabSize size of a slab (a power of two)
+	 * @param overflow store for the records that do not fit into the memory
+	 *            or <code>null</code> if such records should be rejected
+	 */
+	@SuppressWarnings("unchecked")
+	public OffHeapStore(long capacity, int slabSize, DiskStore overflow) {
+
+		if (slabSize < MINIMUM_CHUNK || Integer.bitCount(slabSize) != 1)
+			throw new IllegalArgumentException("Slab size must be a power of two");
+
+		if (capacity < slabSize)
+			throw new IllegalArgumentException("Capacity must be at least one slab");
+
+		this.slabSize = slabSize;
+		this.maximumSlabs = (int) Math.min(Integer.MAX_VALUE, capacity / slabSize);
+		this.overflow = overflow;
+
+		int classes = Integer.numberOfTrailingZeros(slabSize)
+				- Integer.numberOfTrailingZeros(MINIMUM_CHUNK) + 1;
+
+		freeLists = new FreeList[classes];
+		used = (AccessList<Block>[]) new AccessList<?>[classes];
+
+		for (int i = 0; i < classes; i++) {
+			freeLists[i] = new FreeList();
+			used[i] = new AccessList<Block>();
+		}
+
+	}
+
+	public synchronized long write(byte[] data) throws IOException {
+
+		Block block = new Block(idCounter++, data.length);
+
+		if (data.length > slabSize) {
+
+			block.overflowId = writeOverflow(data);
+
+		} else {
+
+			int sizeClass = sizeClass(data.length);
+			long address = allocate(sizeClass);
+
+			if (address == -1) {
+
+				block.overflowId = writeOverflow(data);
+
+			} else {
+
+				block.sizeClass = sizeClass;
+				block.address = address;
+
+				buffer(address).put(data);
+
+				used[sizeClass].add(block);
+
+			}
+
+		}
+
+		index.put(block.id, block);
+
+		return block.id;
+	}
+
+	public synchronized byte[] read(long id) throws IOException {
+
+		Block block = index.get(id);
+
+		if (block == null)
+			throw new IOException("Record does not exist");
+
+		if (block.overflowId != -1)
+			return overflow.read(block.overflowId);
+
+		byte[] data = new byte[block.length];
+
+		buffer(block.address).get(data);
+
+		used[block.sizeClass].moveToTail(block);
+
+		return data;
+	}
+
+	public synchronized void delete(long id) {
+
+		Block block = index.remove(id);
+
+		if (block == null)
+			return;
+
+		if (block.overflowId != -1) {
+
+			overflow.delete(block.overflowId);
+
+		} else {
+
+			used[block.sizeClass].remove(block);
+			freeLists[block.sizeClass].push(block.address);
+			usage -= chunkSize(block.sizeClass);
+
+			int slab = (int) (block.address >>> 32);
+
+			// an empty slab can be split for another size class
+			if (--slabs.get(slab).live == 0) {
+				freeLists[block.sizeClass].removeSlab(slab);
+				freeSlabs.push(slab);
+			}
+
+		}
+
+	}
+
+	public synchronized void clear() {
+
+		index.clear();
+
+		for (int i = 0; i < freeLists.length; i++) {
+			freeLists[i].clear();
+			used[i].clear();
+		}
+
+		// the direct memory is released once the buffers are collected
+		slabs.clear();
+		freeSlabs.clear();
+
+		usage = 0;
+
+		if (overflow != null)
+			overflow.clear();
+
+	}
+
+	public void close() throws IOException {
+
+		clear();
+
+		if (overflow != null)
+			overflow.close();
+
+	}
+
+	/**
+	 * Returns the size of the memory allocated for the slabs.
+	 *
+	 * @return allocated memory in bytes
+	 */
+	public synchronized long getAllocated() {
+		return (long) slabs.size() * slabSize;
+	}
+
+	/**
+	 * Returns the size of the chunks occupied by the records held in the
+	 * memory.
+	 *
+	 * @return occupied memory in bytes
+	 */
+	public synchronized long getUsage() {
+		return usage;
+	}
+
+	/**
+	 * Returns a chunk of the given size class. If the free list is empty, an
+	 * empty slab is reused or a new slab is allocated; if the limit of slabs
+	 * is reached, the least recently used record of the size class is moved
+	 * to the overflow store.
+	 *
+	 * @return the address of the chunk or -1 if no chunk is available
+	 */
+	private long allocate(int sizeClass) {
+
+		long address = freeLists[sizeClass].pop();
+
+		if (address != -1)
+			slabs.get((int) (address >>> 32)).live++;
+
+		if (address == -1) {
+
+			int slab = (int) freeSlabs.pop();
+
+			if (slab == -1 && slabs.size() < maximumSlabs) {
+
+				try {
+
+					slabs.add(new Slab(ByteBuffer.allocateDirect(slabSize)));
+					slab = slabs.size() - 1;
+
+				} catch (OutOfMemoryError e) {
+					// no more direct memory, the store is full
+					maximumSlabs = slabs.size();
+				}
+
+			}
+
+			if (slab != -1) {
+
+				int chunk = chunkSize(sizeClass);
+
+				slabs.get(slab).live = 1;
+
+				for (int offset = slabSize - chunk; offset > 0; offset -= chunk)
+					freeLists[sizeClass].push(((long) slab << 32) | offset);
+
+				address = (long) slab << 32;
+
+			}
+
+		}
+
+		if (address == -1 && overflow != null) {
+
+			Block victim = used[sizeClass].peek();
+
+			if (victim != null) {
+
+				byte[] data = new byte[victim.length];
+				buffer(victim.address).get(data);
+
+				try {
+					victim.overflowId = overflow.write(data);
+				} catch (IOException e) {
+					return -1;
+				}
+
+				used[sizeClass].remove(victim);
+				address = victim.address;
+				usage -= chunkSize(sizeClass);
+
+			}
+
+		}
+
+		if (address != -1)
+			usage += chunkSize(sizeClass);
+
+		return address;
+	}
+
+	private long writeOverflow(byte[] data) throws IOException {
+
+		if (overflow == null)
+			throw new IOException("Not enough memory for the record");
+
+		return overflow.write(data);
+	}
+
+	private ByteBuffer buffer(long address) {
+
+		ByteBuffer buffer = slabs.get((int) (address >>> 32)).buffer.duplicate();
+
+		buffer.position((int) address);
+
+		return buffer;
+	}
+
+	private int sizeClass(int length) {
+
+		if (length <= MINIMUM_CHUNK)
+			return 0;
+
+		return 32 - Integer.numberOfLeadingZeros(length - 1)
+				- Integer.numberOfTrailingZeros(MINIMUM_CHUNK);
+	}
+
+	private int chunkSize(int sizeClass) {
+		return MINIMUM_CHUNK << sizeClass;
+	}
+
+}
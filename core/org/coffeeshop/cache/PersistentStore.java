@@ -0,0 +1,526 @@
+package org.coffeeshop.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link DiskStore} that survives a restart of the application. The
+ * records are appended to data files in a directory and their locations are
+ * written to a journal. When the store is opened again, the journal is read
+ * sequentially to rebuild the index; the data itself is not touched until
+ * it is requested. The checksum of a restored record is verified when the
+ * record is first read.
+ *
+ * Each record is stored together with a key, so that a {@link DataCache}
+ * that uses the store can restore its entries (see
+ * {@link DataCache#setDiskStore(DiskStore)}).
+ */
+public class PersistentStore implements DiskStore {
+
+	/**
+	 * Receives the records that were found in the journal.
+	 */
+	public static interface RecoveryHandler {
+
+		/**
+		 * Called for every restored record, from the oldest to the newest.
+		 *
+		 * @param id identifier of the record
+		 * @param key key of the record
+		 * @param length length of the record
+		 * @param timestamp time when the record was written
+		 */
+		public void recovered(long id, byte[] key, int length, long timestamp);
+
+	}
+
+	private static final int MAGIC = 0x43534a31;
+
+	private static final byte PUT = 1, DELETE = 2;
+
+	private static final long DEFAULT_FILE_SIZE = 64L * 1024 * 1024;
+
+	private static final int MAXIMUM_KEY_LENGTH = 64 * 1024;
+
+	private static final String JOURNAL = "journal.log";
+
+	private static class Location {
+
+		private byte[] key;
+
+		private int file;
+
+		private long offset;
+
+		private int length;
+
+		private long timestamp;
+
+		private int checksum;
+
+		private boolean verified;
+
+	}
+
+	private File directory;
+
+	private long fileSize;
+
+	private LinkedHashMap<Long, Location> index = new LinkedHashMap<Long, Location>();
+
+	private HashMap<Integer, RandomAccessFile> files = new HashMap<Integer, RandomAccessFile>();
+
+	private HashMap<Integer, Integer> liveRecords = new HashMap<Integer, Integer>();
+
+	private DataOutputStream journal;
+
+	private int journalRecords = 0;
+
+	private int currentFile;
+
+	private long idCounter = 0;
+
+	public PersistentStore(File directory) throws IOException {
+		this(directory, DEFAULT_FILE_SIZE);
+	}
+
+	/**
+	 * Opens the store in the given directory. If the directory contains a
+	 * journal, the index is restored from it.
+	 *
+	 * @param directory directory of the store
+	 * @param fileSize size of a data file after which a new file is started
+	 * @throws IOException if the journal can not be read or written
+	 */
+	public PersistentStore(File directory, long fileSize) throws IOException {
+
+		if (fileSize < 1)
+			throw new IllegalArgumentException("File size must be positive");
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create directory " + directory);
+
+		this.directory = directory;
+		this.fileSize = fileSize;
+
+		int lastFile = readJournal();
+
+		// the files without any live records are left from the deleted data
+		// or from an interrupted write
+		String[] names = directory.list();
+
+		for (int i = 0; i < names.length; i++) {
+
+			int number = fileNumber(names[i]);
+
+			if (number < 0)
+				continue;
+
+			lastFile = Math.max(lastFile, number);
+
+			if (!liveRecords.containsKey(number))
+				new File(directory, names[i]).delete();
+
+		}
+
+		// new data is never appended to a file from the previous session
+		currentFile = lastFile + 1;
+
+		writeJournal();
+
+	}
+
+	/**
+	 * Passes all the records in the index to the handler.
+	 *
+	 * @param handler the handler
+	 */
+	public synchronized void recover(RecoveryHandler handler) {
+
+		for (Map.Entry<Long, Location> e : index.entrySet()) {
+
+			Location location = e.getValue();
+
+			handler.recovered(e.getKey(), location.key, location.length, location.timestamp);
+
+		}
+
+	}
+
+	public long write(byte[] data) throws IOException {
+		return write(new byte[0], data);
+	}
+
+	/**
+	 * Writes a new record together with a key.
+	 *
+	 * @param key key of the record, at most 64 KB long
+	 * @param data content of the record
+	 * @return identifier of the record
+	 * @throws IOException if the record can not be written
+	 * @throws IllegalArgumentException if the key is too long
+	 */
+	public synchronized long write(byte[] key, byte[] data) throws IOException {
+
+		if (key.length > MAXIMUM_KEY_LENGTH)
+			throw new IllegalArgumentException("Key is longer than " + MAXIMUM_KEY_LENGTH + " bytes");
+
+		if (journal == null)
+			throw new IOException("Store is closed");
+
+		RandomAccessFile file = file(currentFile);
+
+		if (file.length() >= fileSize) {
+
+			if (!liveRecords.containsKey(currentFile))
+				deleteFile(currentFile);
+
+			currentFile++;
+			file = file(currentFile);
+
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		Location location = new Location();
+		location.key = key;
+		location.file = currentFile;
+		location.offset = file.length();
+		location.length = data.length;
+		location.timestamp = System.currentTimeMillis();
+		location.checksum = (int) crc.getValue();
+		location.verified = true;
+
+		file.seek(location.offset);
+		file.write(data);
+
+		long id = idCounter++;
+
+		writePut(journal, id, location);
+		journal.flush();
+		journalRecords++;
+
+		index.put(id, location);
+		addLive(location.file, 1);
+
+		return id;
+	}
+
+	public synchronized byte[] read(long id) throws IOException {
+
+		Location location = index.get(id);
+
+		if (location == null)
+			throw new IOException("Record does not exist");
+
+		byte[] data = new byte[location.length];
+
+		RandomAccessFile file = file(location.file);
+		file.seek(location.offset);
+		file.readFully(data);
+
+		if (!location.verified) {
+
+			CRC32 crc = new CRC32();
+			crc.update(data);
+
+			if ((int) crc.getValue() != location.checksum) {
+				delete(id);
+				throw new IOException("Record is corrupted");
+			}
+
+			location.verified = true;
+
+		}
+
+		return data;
+	}
+
+	public synchronized void delete(long id) {
+
+		// the records of a closed store are kept for the next session
+		if (journal == null)
+			return;
+
+		Location location = index.remove(id);
+
+		if (location == null)
+			return;
+
+		try {
+
+			journal.writeByte(DELETE);
+			journal.writeLong(id);
+			journal.flush();
+			journalRecords++;
+
+			addLive(location.file, -1);
+
+			// the journal is rewritten once most of it is obsolete
+			if (journalRecords > 1024 && journalRecords > 2 * index.size())
+				writeJournal();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	public synchronized void clear() {
+
+		index.clear();
+
+		liveRecords.clear();
+
+		String[] names = directory.list();
+
+		for (int i = 0; i < names.length; i++) {
+
+			int number = fileNumber(names[i]);
+
+			if (number >= 0)
+				deleteFile(number);
+
+		}
+
+		try {
+
+			if (journal != null)
+				writeJournal();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	/**
+	 * Closes the files of the store. The records remain on disk and are
+	 * restored when the store is opened again.
+	 */
+	public synchronized void close() throws IOException {
+
+		if (journal == null)
+			return;
+
+		journal.close();
+		journal = null;
+
+		for (RandomAccessFile file : files.values())
+			file.close();
+
+		files.clear();
+
+	}
+
+	/**
+	 * Returns the number of records in the store.
+	 *
+	 * @return number of records
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Reads the journal and rebuilds the index. A record that was not
+	 * completely written (the last one after a crash) is ignored.
+	 *
+	 * @return the number of the last data file in the journal
+	 */
+	private int readJournal() throws IOException {
+
+		File file = new File(directory, JOURNAL);
+
+		int lastFile = -1;
+
+		if (!file.exists())
+			return lastFile;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try {
+
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a journal file: " + file);
+
+			while (true) {
+
+				byte type = in.readByte();
+				long id = in.readLong();
+
+				idCounter = Math.max(idCounter, id + 1);
+
+				if (type == PUT) {
+
+					int keyLength = in.readInt();
+
+					// a corrupted record ends the journal, the same as a
+					// truncated one
+					if (keyLength < 0 || keyLength > MAXIMUM_KEY_LENGTH)
+						break;
+
+					Location location = new Location();
+					location.key = new byte[keyLength];
+					in.readFully(location.key);
+					location.file = in.readInt();
+					location.offset = in.readLong();
+					location.length = in.readInt();
+					location.timestamp = in.readLong();
+					location.checksum = in.readInt();
+
+					if (location.file < 0 || location.offset < 0 || location.length < 0)
+						break;
+
+					index.put(id, location);
+
+				} else if (type == DELETE) {
+
+					index.remove(id);
+
+				} else {
+					break;
+				}
+
+			}
+
+		} catch (EOFException e) {
+		} finally {
+			in.close();
+		}
+
+		for (Location location : index.values()) {
+			addLive(location.file, 1);
+			lastFile = Math.max(lastFile, location.file);
+		}
+
+		return lastFile;
+	}
+
+	/**
+	 * Writes a new journal that only contains the records in the index and
+	 * replaces the old one with it.
+	 */
+	private void writeJournal() throws IOException {
+
+		File file = new File(directory, JOURNAL);
+		File tmp = new File(directory, JOURNAL + ".tmp");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+		try {
+
+			out.writeInt(MAGIC);
+
+			for (Map.Entry<Long, Location> e : index.entrySet())
+				writePut(out, e.getKey(), e.getValue());
+
+		} finally {
+			out.close();
+		}
+
+		if (journal != null)
+			journal.close();
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Unable to replace the journal " + file);
+
+		if (!tmp.renameTo(file))
+			throw new IOException("Unable to replace the journal " + file);
+
+		journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		journalRecords = index.size();
+
+	}
+
+	private void writePut(DataOutputStream out, long id, Location location) throws IOException {
+
+		out.writeByte(PUT);
+		out.writeLong(id);
+		out.writeInt(location.key.length);
+		out.write(location.key);
+		out.writeInt(location.file);
+		out.writeLong(location.offset);
+		out.writeInt(location.length);
+		out.writeLong(location.timestamp);
+		out.writeInt(location.checksum);
+
+	}
+
+	private void addLive(int number, int delta) {
+
+		Integer count = liveRecords.get(number);
+
+		int live = (count == null ? 0 : count) + delta;
+
+		if (live > 0) {
+			liveRecords.put(number, live);
+			return;
+		}
+
+		liveRecords.remove(number);
+
+		// the current file is only deleted once it is full
+		if (number != currentFile)
+			deleteFile(number);
+
+	}
+
+	private RandomAccessFile file(int number) throws IOException {
+
+		RandomAccessFile file = files.get(number);
+
+		if (file == null) {
+			file = new RandomAccessFile(new File(directory, fileName(number)), "rw");
+			files.put(number, file);
+		}
+
+		return file;
+	}
+
+	private void deleteFile(int number) {
+
+		RandomAccessFile file = files.remove(number);
+
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+			}
+		}
+
+		new File(directory, fileName(number)).delete();
+
+	}
+
+	private static String fileName(int number) {
+		return "data-" + number + ".dat";
+	}
+
+	private static int fileNumber(String name) {
+
+		if (!name.startsWith("data-") || !name.endsWith(".dat"))
+			return -1;
+
+		try {
+			return Integer.parseInt(name.substring(5, name.length() - 4));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+
+	}
+
+}
@@ -0,0 +1,515 @@
+package org.coffeeshop.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Base of the caches whose keys are primitive numbers. The keys are stored
+ * as <code>long</code> values in an open addressing hash table (linear
+ * probing, deleted slots are refilled by shifting the following entries
+ * back), so that neither the keys nor the entries need an object of their
+ * own. The entries are identified by their index in parallel arrays, the
+ * least recently used order is kept as a doubly linked list of these
+ * indices.
+ *
+ * The cache evicts the least recently used entry once the limit is reached,
+ * the same as an {@link ObjectCache} with the default {@link LRUPolicy}.
+ * The {@link EvictionPolicy} objects can not be used, as they require an
+ * object for every entry.
+ *
+ * @see LongObjectCache
+ * @see IntObjectCache
+ */
+public abstract class PrimitiveKeyCache<K, V> extends AbstractCache<K, V> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final int MAXIMUM_LIMIT = 1 << 29;
+
+	private static final int NONE = -1;
+
+	private int limit;
+
+	// the table contains the index of the entry plus one, zero is empty
+	private int[] table;
+
+	private long[] keys;
+
+	private Object[] values;
+
+	private int[] previous, next;
+
+	private int size = 0, allocated = 0;
+
+	private int eldest = NONE, newest = NONE, free = NONE;
+
+	protected PrimitiveKeyCache(int limit) {
+
+		if (limit < 1 || limit > MAXIMUM_LIMIT)
+			throw new IllegalArgumentException("Limit must be between 1 and " + MAXIMUM_LIMIT);
+
+		this.limit = limit;
+
+		allocate(Math.min(limit, INITIAL_CAPACITY));
+
+	}
+
+	/**
+	 * Converts a key of the generic interface to the primitive key.
+	 */
+	protected abstract long toPrimitive(K key);
+
+	/**
+	 * Converts a primitive key to the key of the generic interface (only
+	 * used for the events).
+	 */
+	protected abstract K toObject(long key);
+
+	public V query(K key) {
+
+		if (key == null)
+			return null;
+
+		return get(toPrimitive(key));
+	}
+
+	public void insert(K key, V object) {
+
+		if (key == null)
+			return;
+
+		put(toPrimitive(key), object);
+	}
+
+	@Override
+	public boolean replace(K key, V object) {
+
+		if (key == null)
+			return false;
+
+		return swap(toPrimitive(key), object);
+	}
+
+	public boolean contains(K key) {
+
+		if (key == null)
+			return false;
+
+		return containsKey(toPrimitive(key));
+	}
+
+	public V remove(K key) {
+
+		if (key == null)
+			return null;
+
+		return delete(toPrimitive(key));
+	}
+
+	/**
+	 * Searches for the objects while holding the lock only once.
+	 *
+	 * @param keys the keys to search with
+	 * @return the objects that were found, mapped by their keys
+	 */
+	@Override
+	public synchronized Map<K, V> queryAll(Collection<? extends K> keys) {
+		return super.queryAll(keys);
+	}
+
+	/**
+	 * Inserts the objects while holding the lock only once. Unlike the
+	 * {@link ObjectCache}, the limit is enforced on every insertion, so
+	 * that the arrays never grow beyond it.
+	 *
+	 * @param objects the objects mapped by their keys
+	 */
+	@Override
+	public void insertAll(Map<? extends K, ? extends V> objects) {
+
+		beginBatch();
+
+		try {
+
+			synchronized (this) {
+
+				for (Map.Entry<? extends K, ? extends V> e : objects.entrySet())
+					insert(e.getKey(), e.getValue());
+
+			}
+
+		} finally {
+			endBatch();
+		}
+
+	}
+
+	/**
+	 * Removes the objects while holding the lock only once.
+	 *
+	 * @param keys the keys of the removed objects
+	 */
+	@Override
+	public void removeAll(Collection<? extends K> keys) {
+
+		beginBatch();
+
+		try {
+
+			synchronized (this) {
+
+				for (K key : keys)
+					remove(key);
+
+			}
+
+		} finally {
+			endBatch();
+		}
+
+	}
+
+	public synchronized void flush() {
+
+		recordRemoval(RemovalCause.EXPLICIT, size);
+
+		allocate(Math.min(limit, INITIAL_CAPACITY));
+
+		fireFlushed();
+
+		fireCacheUpdate();
+
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the maximum number of objects in the cache.
+	 *
+	 * @return the capacity
+	 */
+	public int capacity() {
+		return limit;
+	}
+
+	/**
+	 * Searches for the object by its key and marks it as the most recently
+	 * used one.
+	 *
+	 * @param key the key to search with
+	 * @return the object or <code>null</code> if no object is found
+	 */
+	@SuppressWarnings("unchecked")
+	protected synchronized V get(long key) {
+
+		int slot = find(key);
+
+		if (slot == NONE) {
+			recordMiss();
+			return null;
+		}
+
+		int entry = table[slot] - 1;
+
+		if (entry != newest) {
+			unlink(entry);
+			link(entry);
+		}
+
+		recordHit();
+
+		return (V) values[entry];
+	}
+
+	/**
+	 * Inserts an object to the cache. If an object with the same key already
+	 * exists, nothing is done. The least recently used object is removed if
+	 * the cache is full.
+	 *
+	 * @param key the key of the object
+	 * @param object the object itself
+	 */
+	protected synchronized void put(long key, V object) {
+
+		if (find(key) != NONE)
+			return;
+
+		if (size == limit)
+			removeEntry(eldest, RemovalCause.SIZE);
+
+		int entry;
+
+		if (free != NONE) {
+
+			entry = free;
+			free = next[entry];
+
+		} else {
+
+			if (allocated == keys.length)
+				grow();
+
+			entry = allocated++;
+
+		}
+
+		// the table is kept at most three quarters full
+		if ((size + 1) * 4L > table.length * 3L)
+			rehash(table.length * 2);
+
+		keys[entry] = key;
+		values[entry] = object;
+
+		link(entry);
+
+		int slot = hash(key) & (table.length - 1);
+
+		while (table[slot] != 0)
+			slot = (slot + 1) & (table.length - 1);
+
+		table[slot] = entry + 1;
+
+		size++;
+
+		if (hasEventListeners())
+			fireInserted(toObject(key));
+
+		fireCacheUpdate();
+
+	}
+
+	/**
+	 * Replaces the object of a key that is in the cache and marks it as the
+	 * most recently used one.
+	 *
+	 * @param key the key of the object
+	 * @param object the new object
+	 * @return <code>false</code> if the key is not in the cache
+	 */
+	protected synchronized boolean swap(long key, V object) {
+
+		int slot = find(key);
+
+		if (slot == NONE)
+			return false;
+
+		int entry = table[slot] - 1;
+
+		values[entry] = object;
+
+		if (entry != newest) {
+			unlink(entry);
+			link(entry);
+		}
+
+		if (hasEventListeners())
+			fireInserted(toObject(key));
+
+		fireCacheUpdate();
+
+		return true;
+	}
+
+	protected synchronized boolean containsKey(long key) {
+		return find(key) != NONE;
+	}
+
+	/**
+	 * Removes the object from the cache.
+	 *
+	 * @param key the key of the object
+	 * @return the removed object or <code>null</code> if it was not found
+	 */
+	@SuppressWarnings("unchecked")
+	protected synchronized V delete(long key) {
+
+		int slot = find(key);
+
+		if (slot == NONE)
+			return null;
+
+		int entry = table[slot] - 1;
+
+		V object = (V) values[entry];
+
+		removeEntry(entry, RemovalCause.EXPLICIT);
+
+		fireCacheUpdate();
+
+		return object;
+	}
+
+	/**
+	 * Returns the slot of the key in the table or {@link #NONE}.
+	 */
+	private int find(long key) {
+
+		int mask = table.length - 1;
+
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+
+			int entry = table[slot];
+
+			if (entry == 0)
+				return NONE;
+
+			if (keys[entry - 1] == key)
+				return slot;
+
+		}
+
+	}
+
+	private void removeEntry(int entry, RemovalCause cause) {
+
+		long key = keys[entry];
+
+		recordRemoval(cause, 1);
+
+		if (hasEventListeners())
+			fireRemoved(toObject(key), cause);
+
+		clearSlot(find(key));
+
+		unlink(entry);
+
+		values[entry] = null;
+		next[entry] = free;
+		free = entry;
+
+		size--;
+
+	}
+
+	/**
+	 * Empties the slot and moves the entries that follow it back, so that
+	 * every entry remains reachable from its home slot.
+	 */
+	private void clearSlot(int gap) {
+
+		int mask = table.length - 1;
+
+		for (int slot = (gap + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+
+			int home = hash(keys[table[slot] - 1]) & mask;
+
+			// the entry can only move if its home slot is not between the
+			// gap and its current slot
+			if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+				table[gap] = table[slot];
+				gap = slot;
+			}
+
+		}
+
+		table[gap] = 0;
+
+	}
+
+	private void link(int entry) {
+
+		previous[entry] = newest;
+		next[entry] = NONE;
+
+		if (newest == NONE)
+			eldest = entry;
+		else
+			next[newest] = entry;
+
+		newest = entry;
+
+	}
+
+	private void unlink(int entry) {
+
+		if (previous[entry] == NONE)
+			eldest = next[entry];
+		else
+			next[previous[entry]] = next[entry];
+
+		if (next[entry] == NONE)
+			newest = previous[entry];
+		else
+			previous[next[entry]] = previous[entry];
+
+	}
+
+	private void allocate(int capacity) {
+
+		keys = new long[capacity];
+		values = new Object[capacity];
+		previous = new int[capacity];
+		next = new int[capacity];
+
+		table = new int[tableSize(capacity)];
+
+		size = 0;
+		allocated = 0;
+		eldest = newest = free = NONE;
+
+	}
+
+	/**
+	 * Enlarges the entry arrays, the entries keep their indices.
+	 */
+	private void grow() {
+
+		int capacity = (int) Math.min((long) keys.length * 2, limit);
+
+		long[] k = new long[capacity];
+		System.arraycopy(keys, 0, k, 0, allocated);
+		keys = k;
+
+		Object[] v = new Object[capacity];
+		System.arraycopy(values, 0, v, 0, allocated);
+		values = v;
+
+		int[] p = new int[capacity];
+		System.arraycopy(previous, 0, p, 0, allocated);
+		previous = p;
+
+		int[] n = new int[capacity];
+		System.arraycopy(next, 0, n, 0, allocated);
+		next = n;
+
+	}
+
+	private void rehash(int length) {
+
+		table = new int[length];
+
+		int mask = length - 1;
+
+		for (int entry = eldest; entry != NONE; entry = next[entry]) {
+
+			int slot = hash(keys[entry]) & mask;
+
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			table[slot] = entry + 1;
+
+		}
+
+	}
+
+	private static int tableSize(int capacity) {
+
+		int length = 2;
+
+		while (length * 3L < capacity * 4L)
+			length <<= 1;
+
+		return length;
+	}
+
+	private static int hash(long key) {
+
+		long h = key * 0x9e3779b97f4a7c15L;
+
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
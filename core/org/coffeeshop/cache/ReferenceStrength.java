@@ -0,0 +1,28 @@
+package org.coffeeshop.cache;
+
+/**
+ * The strength of the references that a cache holds to its values.
+ *
+ * @see ObjectCache#setValueStrength(ReferenceStrength)
+ */
+public enum ReferenceStrength {
+
+	/**
+	 * The values are held by ordinary references and are only removed by
+	 * the cache itself.
+	 */
+	STRONG,
+
+	/**
+	 * The values are held by soft references, the garbage collector
+	 * reclaims them when the memory runs low.
+	 */
+	SOFT,
+
+	/**
+	 * The values are held by weak references, the garbage collector
+	 * reclaims them once they are not referenced elsewhere.
+	 */
+	WEAK
+
+}
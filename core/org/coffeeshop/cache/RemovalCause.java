@@ -0,0 +1,43 @@
+package org.coffeeshop.cache;
+
+/**
+ * The reason why an entry has left the cache.
+ */
+public enum RemovalCause {
+
+	/**
+	 * The entry was removed by the user.
+	 */
+	EXPLICIT,
+
+	/**
+	 * The entry was evicted because the cache exceeded its capacity.
+	 */
+	SIZE,
+
+	/**
+	 * The entry has expired.
+	 */
+	EXPIRED,
+
+	/**
+	 * The value of the entry was reclaimed by the garbage collector.
+	 */
+	COLLECTED,
+
+	/**
+	 * The data of the entry could not be read back from the disk.
+	 */
+	FAILED;
+
+	/**
+	 * Returns <code>true</code> if the entry was removed automatically by the
+	 * cache and not by the user.
+	 *
+	 * @return <code>true</code> for the evictions
+	 */
+	public boolean isEviction() {
+		return this != EXPLICIT;
+	}
+
+}
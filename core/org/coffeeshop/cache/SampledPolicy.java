@@ -0,0 +1,121 @@
+package org.coffeeshop.cache;
+
+import java.util.Random;
+
+/**
+ * Sampled least recently used eviction policy. Instead of keeping the
+ * entries ordered, the policy only records the time of the last access and
+ * picks the least recently used entry among a few randomly chosen ones. A
+ * hit costs a single array write and the quality of the eviction approaches
+ * LRU as the number of samples grows.
+ *
+ * @param <K> type of the keys
+ */
+public class SampledPolicy<K> implements EvictionPolicy<K> {
+
+	private static final int DEFAULT_SAMPLES = 5;
+
+	private CacheEntry<?>[] entries = new CacheEntry<?>[16];
+
+	private long[] accessed = new long[16];
+
+	private int size = 0;
+
+	private long tick = 0;
+
+	private int samples;
+
+	private Random random = new Random();
+
+	public SampledPolicy() {
+		this(DEFAULT_SAMPLES);
+	}
+
+	/**
+	 * Constructs a new policy.
+	 *
+	 * @param samples number of entries that are compared when looking for
+	 * the victim
+	 */
+	public SampledPolicy(int samples) {
+
+		if (samples < 1)
+			throw new IllegalArgumentException("At least one sample is required");
+
+		this.samples = samples;
+
+	}
+
+	public void inserted(CacheEntry<K> entry) {
+
+		if (size == entries.length) {
+			CacheEntry<?>[] e = new CacheEntry<?>[size * 2];
+			long[] a = new long[size * 2];
+			System.arraycopy(entries, 0, e, 0, size);
+			System.arraycopy(accessed, 0, a, 0, size);
+			entries = e;
+			accessed = a;
+		}
+
+		entry.counter = size;
+		entries[size] = entry;
+		accessed[size] = tick++;
+		size++;
+
+	}
+
+	public void accessed(CacheEntry<K> entry) {
+
+		if (isMember(entry))
+			accessed[entry.counter] = tick++;
+
+	}
+
+	public void removed(CacheEntry<K> entry) {
+
+		if (!isMember(entry))
+			return;
+
+		int index = entry.counter;
+
+		size--;
+
+		// move the last entry into the hole
+		entries[index] = entries[size];
+		accessed[index] = accessed[size];
+		entries[index].counter = index;
+		entries[size] = null;
+
+	}
+
+	@SuppressWarnings("unchecked")
+	public CacheEntry<K> victim() {
+
+		if (size == 0)
+			return null;
+
+		int candidate = random.nextInt(size);
+
+		for (int i = 1; i < samples; i++) {
+			int index = random.nextInt(size);
+			if (accessed[index] < accessed[candidate])
+				candidate = index;
+		}
+
+		return (CacheEntry<K>) entries[candidate];
+	}
+
+	public void clear() {
+
+		for (int i = 0; i < size; i++)
+			entries[i] = null;
+
+		size = 0;
+
+	}
+
+	private boolean isMember(CacheEntry<K> entry) {
+		return entry.counter < size && entries[entry.counter] == entry;
+	}
+
+}
@@ -0,0 +1,364 @@
+package org.coffeeshop.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.coffeeshop.io.TempDirectory;
+
+/**
+ * A log-structured {@link DiskStore}. The records are appended to a few
+ * large segment files that are mapped into memory, instead of being written
+ * to a file each. The location of each record is kept in an in-memory
+ * index. Deleting a record only marks its space as dead; once most of a
+ * segment is dead, a background thread copies the remaining records to the
+ * end of the log and deletes the segment file.
+ *
+ * Each record is stored as its length, its identifier and the data.
+ */
+public class SegmentStore implements DiskStore {
+
+	private static final int HEADER_LENGTH = 12;
+
+	private static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private static final double COMPACTION_THRESHOLD = 0.5;
+
+	private class Segment {
+
+		private File file;
+
+		private RandomAccessFile handle;
+
+		private MappedByteBuffer buffer;
+
+		private int capacity, position = 0;
+
+		private long live = 0;
+
+		private boolean compacting = false;
+
+		public Segment(int number, int capacity) throws IOException {
+
+			this.capacity = capacity;
+
+			file = new File(directory, "segment-" + number + ".dat");
+			handle = new RandomAccessFile(file, "rw");
+			handle.setLength(capacity);
+			buffer = handle.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+		}
+
+		public void delete() {
+
+			try {
+				handle.close();
+			} catch (IOException e) {
+			}
+
+			// the mapping is released when the buffer is collected, some
+			// platforms will only allow the deletion after that
+			buffer = null;
+
+			if (!file.delete())
+				file.deleteOnExit();
+
+		}
+
+	}
+
+	private class Location {
+
+		private Segment segment;
+
+		private int offset, length;
+
+		public Location(Segment segment, int offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+	private class Compactor extends Thread {
+
+		public Compactor() {
+			super("Segment store compactor");
+			setDaemon(true);
+		}
+
+		public void run() {
+
+			while (!closed) {
+
+				Segment segment;
+
+				try {
+					segment = compactionQueue.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+
+				try {
+					compact(segment);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+
+			}
+
+		}
+
+	}
+
+	private File directory;
+
+	private int segmentSize;
+
+	private ArrayList<Segment> segments = new ArrayList<Segment>();
+
+	private Segment current = null;
+
+	private int segmentCounter = 0;
+
+	private HashMap<Long, Location> index = new HashMap<Long, Location>();
+
+	private long idCounter = 0;
+
+	private LinkedBlockingQueue<Segment> compactionQueue = new LinkedBlockingQueue<Segment>();
+
+	private Compactor compactor;
+
+	private volatile boolean closed = false;
+
+	public SegmentStore(TempDirectory directory) {
+		this(new File(directory.getPath()), DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Constructs a new store.
+	 *
+	 * @param directory directory where the segment files are created
+	 * @param segmentSize size of a segment file in bytes
+	 */
+	public SegmentStore(File directory, int segmentSize) {
+
+		if (segmentSize <= HEADER_LENGTH)
+			throw new IllegalArgumentException("Segment size is too small");
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IllegalArgumentException("Unable to create directory " + directory);
+
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+
+		compactor = new Compactor();
+		compactor.start();
+
+	}
+
+	public synchronized long write(byte[] data) throws IOException {
+
+		long id = idCounter++;
+
+		index.put(id, append(id, data, 0, data.length));
+
+		return id;
+	}
+
+	public synchronized byte[] read(long id) throws IOException {
+
+		Location location = index.get(id);
+
+		if (location == null)
+			throw new IOException("Record does not exist");
+
+		byte[] data = new byte[location.length];
+
+		ByteBuffer buffer = location.segment.buffer.duplicate();
+		buffer.position(location.offset + HEADER_LENGTH);
+		buffer.get(data);
+
+		return data;
+	}
+
+	public synchronized void delete(long id) {
+
+		Location location = index.remove(id);
+
+		if (location == null)
+			return;
+
+		Segment segment = location.segment;
+
+		segment.live -= location.length + HEADER_LENGTH;
+
+		if (segment == current || segment.compacting)
+			return;
+
+		if (segment.live == 0) {
+
+			segments.remove(segment);
+			segment.delete();
+
+		} else if (segment.live < segment.position * COMPACTION_THRESHOLD) {
+
+			segment.compacting = true;
+			compactionQueue.offer(segment);
+
+		}
+
+	}
+
+	public synchronized void clear() {
+
+		index.clear();
+
+		for (Segment segment : segments)
+			segment.delete();
+
+		segments.clear();
+		compactionQueue.clear();
+		current = null;
+
+	}
+
+	public void close() throws IOException {
+
+		closed = true;
+		compactor.interrupt();
+
+		clear();
+
+	}
+
+	/**
+	 * Returns the number of bytes occupied by the segment files.
+	 *
+	 * @return size of the segments
+	 */
+	public synchronized long getFileSize() {
+
+		long size = 0;
+
+		for (Segment segment : segments)
+			size += segment.capacity;
+
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes occupied by the records that were not
+	 * deleted.
+	 *
+	 * @return size of the live records
+	 */
+	public synchronized long getLiveSize() {
+
+		long size = 0;
+
+		for (Segment segment : segments)
+			size += segment.live;
+
+		return size;
+	}
+
+	/**
+	 * Appends a record to the current segment, a new segment is started if
+	 * the record does not fit. Must be called while holding the lock.
+	 */
+	private Location append(long id, byte[] data, int offset, int length) throws IOException {
+
+		if (closed)
+			throw new IOException("Store is closed");
+
+		int total = length + HEADER_LENGTH;
+
+		if (current == null || current.capacity - current.position < total) {
+
+			Segment sealed = current;
+
+			current = new Segment(segmentCounter++, Math.max(segmentSize, total));
+			segments.add(current);
+
+			// the segment may have become sparse while it was being filled
+			if (sealed != null && sealed.live < sealed.position * COMPACTION_THRESHOLD) {
+				sealed.compacting = true;
+				compactionQueue.offer(sealed);
+			}
+
+		}
+
+		ByteBuffer buffer = current.buffer;
+
+		buffer.position(current.position);
+		buffer.putInt(length);
+		buffer.putLong(id);
+		buffer.put(data, offset, length);
+
+		Location location = new Location(current, current.position, length);
+
+		current.position += total;
+		current.live += total;
+
+		return location;
+	}
+
+	/**
+	 * Moves the live records of the segment to the end of the log and
+	 * deletes the segment. The lock is taken for each record, so that the
+	 * store remains usable during the compaction.
+	 */
+	private void compact(Segment segment) throws IOException {
+
+		int offset = 0;
+
+		while (offset < segment.position) {
+
+			synchronized (this) {
+
+				if (segment.buffer == null)
+					return;
+
+				ByteBuffer buffer = segment.buffer.duplicate();
+				buffer.position(offset);
+
+				int length = buffer.getInt();
+				long id = buffer.getLong();
+
+				Location location = index.get(id);
+
+				if (location != null && location.segment == segment
+						&& location.offset == offset) {
+
+					byte[] data = new byte[length];
+					buffer.get(data);
+
+					segment.live -= length + HEADER_LENGTH;
+					index.put(id, append(id, data, 0, length));
+
+				}
+
+				offset += length + HEADER_LENGTH;
+
+			}
+
+		}
+
+		synchronized (this) {
+
+			if (segments.remove(segment))
+				segment.delete();
+
+		}
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.coffeeshop.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is spread over several cells, so that threads that update
+ * it concurrently rarely contend for the same memory location. The cells are
+ * padded to avoid false sharing. Reading the counter sums all the cells.
+ */
+class StripedCounter {
+
+	private static final int PADDING = 8;
+
+	private static final int STRIPES;
+
+	static {
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+
+		while (stripes < processors * 2 && stripes < 64)
+			stripes <<= 1;
+
+		STRIPES = stripes;
+
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long value) {
+		cells.addAndGet(cell(), value);
+	}
+
+	public long sum() {
+
+		long sum = 0;
+
+		for (int i = 0; i < STRIPES; i++)
+			sum += cells.get(i * PADDING);
+
+		return sum;
+	}
+
+	private static int cell() {
+
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+		return ((h >>> 16) & (STRIPES - 1)) * PADDING;
+	}
+
+}
@@ -0,0 +1,28 @@
+package org.coffeeshop.cache;
+
+/**
+ * Source of time for the caches. The caches that expire entries read the
+ * time through this interface, so that a different source (for instance a
+ * manually advanced one) can be used.
+ */
+public interface Ticker {
+
+	/**
+	 * Ticker that returns the system time.
+	 */
+	public static final Ticker SYSTEM = new Ticker() {
+
+		public long time() {
+			return System.currentTimeMillis();
+		}
+
+	};
+
+	/**
+	 * Returns the current time in milliseconds.
+	 *
+	 * @return the current time
+	 */
+	public long time();
+
+}
@@ -0,0 +1,158 @@
+package org.coffeeshop.cache;
+
+import java.util.List;
+
+/**
+ * A hierarchical timer wheel that is used to find the expired cache
+ * entries without scanning the whole cache. Every level of the wheel is an
+ * array of buckets that each cover a fixed span of time. An entry is placed
+ * into the coarsest level that can represent its deadline and cascades to
+ * finer levels as the time advances. Scheduling, cancelling and expiring an
+ * entry are therefore constant time operations.
+ *
+ * The wheel is not thread-safe.
+ *
+ * @param <K> type of the keys
+ */
+class TimerWheel<K> {
+
+	/**
+	 * An entry of the timer wheel.
+	 */
+	static abstract class Node<K> extends CacheEntry<K> {
+
+		long deadline;
+
+	}
+
+	// bucket spans of roughly 1 second, 1 minute, 1 hour and 18 hours
+	private static final int[] SHIFTS = { 10, 16, 22, 26, 27 };
+
+	private static final int[] BUCKETS = { 64, 64, 16, 2, 1 };
+
+	private AccessList<Node<K>>[][] wheel;
+
+	private long time;
+
+	@SuppressWarnings("unchecked")
+	public TimerWheel(long time) {
+
+		this.time = time;
+
+		wheel = (AccessList<Node<K>>[][]) new AccessList<?>[BUCKETS.length][];
+
+		for (int i = 0; i < BUCKETS.length; i++) {
+
+			wheel[i] = (AccessList<Node<K>>[]) new AccessList<?>[BUCKETS[i]];
+
+			for (int j = 0; j < BUCKETS[i]; j++)
+				wheel[i][j] = new AccessList<Node<K>>();
+
+		}
+
+	}
+
+	/**
+	 * Schedules the node (or reschedules it if it is already scheduled).
+	 *
+	 * @param node the node with the deadline set
+	 */
+	public void schedule(Node<K> node) {
+
+		AccessList.detach(node);
+
+		bucketFor(node.deadline).add(node);
+
+	}
+
+	/**
+	 * Removes the node from the wheel.
+	 *
+	 * @param node the node
+	 */
+	public void cancel(Node<K> node) {
+
+		AccessList.detach(node);
+
+	}
+
+	/**
+	 * Advances the wheel to the given time and collects the nodes whose
+	 * deadline has passed. The collected nodes are no longer scheduled.
+	 *
+	 * @param now the current time
+	 * @param expired list that receives the expired nodes
+	 */
+	public void advance(long now, List<Node<K>> expired) {
+
+		long previous = time;
+
+		if (now <= previous)
+			return;
+
+		time = now;
+
+		for (int i = 0; i < SHIFTS.length; i++) {
+
+			long previousTicks = previous >>> SHIFTS[i];
+			long currentTicks = now >>> SHIFTS[i];
+
+			if (currentTicks == previousTicks)
+				break;
+
+			int mask = BUCKETS[i] - 1;
+
+			// a single turn of the level visits every bucket
+			long steps = Math.min(currentTicks - previousTicks, BUCKETS[i] - 1);
+
+			for (long t = currentTicks - steps; t <= currentTicks; t++)
+				expire(wheel[i][(int) (t & mask)], now, expired);
+
+		}
+
+	}
+
+	/**
+	 * Removes all the nodes from the wheel.
+	 */
+	public void clear() {
+
+		for (int i = 0; i < wheel.length; i++)
+			for (int j = 0; j < wheel[i].length; j++)
+				wheel[i][j].clear();
+
+	}
+
+	private void expire(AccessList<Node<K>> bucket, long now, List<Node<K>> expired) {
+
+		// the nodes that are not due yet are cascaded and may come back to
+		// the same bucket, only the original nodes are visited
+		for (int count = bucket.size(); count > 0; count--) {
+
+			Node<K> node = bucket.poll();
+
+			if (node.deadline <= now)
+				expired.add(node);
+			else
+				bucketFor(node.deadline).add(node);
+
+		}
+
+	}
+
+	private AccessList<Node<K>> bucketFor(long deadline) {
+
+		long delay = Math.max(0, deadline - time);
+
+		for (int i = 0; i < SHIFTS.length - 1; i++) {
+
+			if (delay < (1L << SHIFTS[i + 1]))
+				return wheel[i][(int) ((deadline >>> SHIFTS[i]) & (BUCKETS[i] - 1))];
+
+		}
+
+		return wheel[SHIFTS.length - 1][0];
+
+	}
+
+}
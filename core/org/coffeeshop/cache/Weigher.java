@@ -0,0 +1,23 @@
+package org.coffeeshop.cache;
+
+/**
+ * Computes the weight of a cache entry. A cache that is constructed with a
+ * weigher limits the total weight of its entries instead of their number,
+ * so the weight is usually an estimate of the memory used by the value.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public interface Weigher<K, V> {
+
+	/**
+	 * Returns the weight of the entry. The weight must not change while the
+	 * entry is in the cache.
+	 *
+	 * @param key the key of the entry
+	 * @param value the value of the entry
+	 * @return a non-negative weight
+	 */
+	public long weigh(K key, V value);
+
+}
@@ -0,0 +1,146 @@
+package org.coffeeshop.cache;
+
+/**
+ * Window TinyLFU eviction policy. New entries enter a small LRU window.
+ * Entries pushed out of the window compete for a place in the main space
+ * with the entry that the main space would evict: the one with the higher
+ * estimated access frequency (according to a {@link FrequencySketch}) stays.
+ * The main space is a segmented LRU with a probation and a protected part,
+ * an entry is promoted to the protected part on its second access.
+ *
+ * As a result one-off scans stay in the window and the probation part and
+ * do not flush the frequently used entries from the cache.
+ *
+ * @param <K> type of the keys
+ */
+public class WindowTinyLFUPolicy<K> implements EvictionPolicy<K> {
+
+	private AccessList<CacheEntry<K>> window = new AccessList<CacheEntry<K>>();
+
+	private AccessList<CacheEntry<K>> probation = new AccessList<CacheEntry<K>>();
+
+	private AccessList<CacheEntry<K>> protect = new AccessList<CacheEntry<K>>();
+
+	private FrequencySketch sketch;
+
+	private int capacity, windowLimit, protectedLimit;
+
+	/**
+	 * Constructs a policy for a cache with the given capacity. The window
+	 * takes one percent of the capacity.
+	 *
+	 * @param capacity capacity of the cache (in entries)
+	 */
+	public WindowTinyLFUPolicy(int capacity) {
+		this(capacity, 0.01);
+	}
+
+	/**
+	 * Constructs a policy for a cache with the given capacity.
+	 *
+	 * @param capacity capacity of the cache (in entries)
+	 * @param windowRatio part of the capacity that is used for the window
+	 */
+	public WindowTinyLFUPolicy(int capacity, double windowRatio) {
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive");
+
+		if (windowRatio <= 0 || windowRatio >= 1)
+			throw new IllegalArgumentException("Window ratio must be between 0 and 1");
+
+		this.capacity = capacity;
+		windowLimit = Math.max(1, (int) (capacity * windowRatio));
+		protectedLimit = (int) ((capacity - windowLimit) * 0.8);
+		sketch = new FrequencySketch(capacity);
+
+	}
+
+	public void inserted(CacheEntry<K> entry) {
+
+		sketch.increment(entry.getKey());
+		window.add(entry);
+
+		// while the cache is not full the main space takes anything
+		while (window.size() > windowLimit
+				&& window.size() + probation.size() + protect.size() <= capacity)
+			probation.add(window.poll());
+
+	}
+
+	public void accessed(CacheEntry<K> entry) {
+
+		sketch.increment(entry.getKey());
+
+		if (window.contains(entry)) {
+
+			window.moveToTail(entry);
+
+		} else if (probation.contains(entry)) {
+
+			probation.remove(entry);
+			protect.add(entry);
+
+			while (protect.size() > protectedLimit)
+				probation.add(protect.poll());
+
+		} else if (protect.contains(entry)) {
+
+			protect.moveToTail(entry);
+
+		}
+
+	}
+
+	public void removed(CacheEntry<K> entry) {
+
+		if (!window.remove(entry))
+			if (!probation.remove(entry))
+				protect.remove(entry);
+
+	}
+
+	public CacheEntry<K> victim() {
+
+		while (window.size() > windowLimit) {
+
+			CacheEntry<K> candidate = window.peek();
+			CacheEntry<K> victim = probation.peek();
+
+			if (victim == null)
+				victim = protect.peek();
+
+			if (victim == null)
+				return candidate;
+
+			// the candidate has to be more popular than the victim to be admitted
+			if (sketch.frequency(candidate.getKey()) <= sketch.frequency(victim.getKey()))
+				return candidate;
+
+			window.remove(candidate);
+			probation.add(candidate);
+
+			return victim;
+
+		}
+
+		if (!probation.isEmpty())
+			return probation.peek();
+
+		if (!protect.isEmpty())
+			return protect.peek();
+
+		return window.peek();
+
+	}
+
+	public void clear() {
+
+		window.clear();
+		probation.clear();
+		protect.clear();
+		sketch.clear();
+
+	}
+
+}
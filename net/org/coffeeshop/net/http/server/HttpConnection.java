@@ -0,0 +1,183 @@
+package org.coffeeshop.net.http.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.channels.WritableByteChannel;
+
+import org.coffeeshop.application.Application;
+import org.coffeeshop.net.http.server.resource.Resource;
+
+/**
+ * The state of a client connection that is shared by the requests sent
+ * over it. The connection does not own a thread, the requests are handled
+ * by whichever engine accepted the connection (see {@link HttpServerThread}
+ * and {@link HttpSelectorEngine}).
+ */
+class HttpConnection {
+
+	static final int MAX_KEEPALIVE_REQUESTS = 3;
+
+	private HttpServer server;
+
+	private InetAddress remoteAddress;
+
+	private HttpRequest request = null;
+
+	private HttpResponse response = null;
+
+	private HttpSession session = null;
+
+	private int requestCounter = 0;
+
+	private WritableByteChannel channel = null;
+
+	public HttpConnection(HttpServer server, InetAddress remoteAddress) {
+		this.server = server;
+		this.remoteAddress = remoteAddress;
+	}
+
+	/**
+	 * this method returns the HttpSession object
+	 *
+	 */
+	public HttpSession getHttpSession() {
+		return session;
+	}
+
+	/**
+	 * this method returns the http server object. Required for accessing
+	 * settings and other options
+	 *
+	 */
+	public HttpServerInformation getServer() {
+		return this.server;
+	}
+
+	/**
+	 * Returns the current httprequest. Warning: you can only use this after the
+	 * request has been succesfully parsed
+	 *
+	 */
+	public HttpRequest getHttpRequest() {
+		return this.request;
+	}
+
+	/**
+	 * Returns the current response. Warning: you can only use this after the
+	 * request has been succesfully parsed
+	 *
+	 */
+	public HttpResponse getHttpResponse() {
+		return this.response;
+	}
+
+	public InetAddress getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * Returns the channel of the client socket that the files can be
+	 * transferred to directly.
+	 * 
+	 * @return the channel or <code>null</code> if the responses can only be
+	 *         written to the output stream
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Sets the channel of the client socket. The channel must be in the
+	 * blocking mode and the data written to it must not overtake the data
+	 * written to the output stream of the connection.
+	 * 
+	 * @param channel
+	 *            the channel or <code>null</code>
+	 */
+	public void setChannel(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Reads a single request from the input, executes the requested resource
+	 * and writes the response.
+	 *
+	 * @param input
+	 *            the input of the connection
+	 * @param output
+	 *            the output of the connection
+	 * @return <code>true</code> if the connection can be used for another
+	 *         request
+	 * @throws IOException
+	 *             on a communication error
+	 */
+	public boolean handle(InputStream input, OutputStream output) throws IOException {
+
+		requestCounter++;
+
+		// create the request and response
+		request = new HttpRequest(this);
+
+		// init the request object
+		int result = request.init(input, remoteAddress, requestCounter > 0);
+
+		response = new HttpResponse(this, request, output);
+
+		if (result != HttpResponse.HTTP_OK) {
+			if (result != 0) {
+				HttpResponse.sendErrorMessage(response, result);
+				output.flush();
+			}
+			return false;
+		}
+
+		//session = server.getSessionManager().loadSessionVars(request, response);
+
+		String location = request.getLocation();
+
+		if (location.length() > 0 && location.charAt(0) == '/')
+			location = location.substring(1);
+
+		Resource r = server.getRoot().get(location);
+
+		if (r == null) {
+
+			HttpResponse.sendErrorMessage(response, HttpResponse.HTTP_NOT_FOUND);
+			output.flush();
+			return false;
+
+		}
+
+		try {
+
+			r.execute(request, response);
+
+			if (!response.isHeadersSent()) {
+
+				if (response.getResultCode() == HttpResponse.HTTP_OK) {
+					HttpResponse.sendErrorMessage(response, HttpResponse.HTTP_INTERNAL_ERROR);
+				} else {
+					HttpResponse.sendErrorMessage(response, response.getResultCode());
+				}
+
+				output.flush();
+				return false;
+
+			}
+
+		} catch (Exception e) {
+
+			Application.getApplicationLogger().report(e);
+			HttpResponse.sendErrorMessage(response, HttpResponse.HTTP_INTERNAL_ERROR);
+
+		}
+
+		output.flush();
+
+		return response.isKeepAlive() && requestCounter < MAX_KEEPALIVE_REQUESTS;
+
+	}
+
+}
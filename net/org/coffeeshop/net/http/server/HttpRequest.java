@@ -78,7 +78,7 @@ public class HttpRequest {
 
 	private HashMap<String, Object> cookies = new HashMap<String, Object>();
 
-	private HttpServerThread httpServerThread;
+	private HttpConnection connection;
 
 	private boolean keepAlive = false;
 	
@@ -87,15 +87,15 @@ public class HttpRequest {
 	private String contentType = "";
 	
 	/**
-	 * The constructor with the serverthread, so we can read the webserver
+	 * The constructor with the connection, so we can read the webserver
 	 * settings
 	 * 
 	 * @since V1.01
 	 */
-	public HttpRequest(HttpServerThread httpServerThread) {
-		this.httpServerThread = httpServerThread;
+	public HttpRequest(HttpConnection connection) {
+		this.connection = connection;
 		
-		this.serverInfo = httpServerThread.getServer();
+		this.serverInfo = connection.getServer();
 	}
 
 	public HttpServerInformation getServerInformation() {
@@ -535,7 +535,28 @@ public class HttpRequest {
 	 */
 	public int init(InputStream input, Socket socket, boolean keepAliveRequest)
 			throws IOException {
-		this.ipaddress = socket.getInetAddress();
+		return init(input, socket.getInetAddress(), keepAliveRequest);
+	}
+
+	/**
+	 * This method is used internally by the webserver to initialise a http
+	 * request that was not read directly from a socket.
+	 * 
+	 * @param input
+	 *            the inputstream to parse.
+	 * @param address
+	 *            the address of the client
+	 * @param keepAliveRequest
+	 *            is it a keepalive request (which means a timeout of the first
+	 *            readline isn't a problem)
+	 * @return the HTTP result code HttpUtils.HTTP_OK on success returns 0 if
+	 *         it's a keepAliveRequest and no request is recieved
+	 * @throws IOException
+	 *             on a communnications error
+	 */
+	public int init(InputStream input, InetAddress address, boolean keepAliveRequest)
+			throws IOException {
+		this.ipaddress = address;
 
 		BufferedReader reader = new BufferedReader(new InputStreamReader(input));
 
@@ -674,7 +695,7 @@ public class HttpRequest {
 									// While we don't reached the maximum we can
 									// write to the temp file
 									if (tempfile != null
-											&& tempfile.length() < httpServerThread.getServer()
+											&& tempfile.length() < connection.getServer()
 													.getMaxUploadSize()) {
 										out.write(testa[0]);
 									}
@@ -698,7 +719,7 @@ public class HttpRequest {
 										fileResult = HttpFileUpload.RESULT_OK;
 									}
 									if (tempfile != null
-											&& tempfile.length() > httpServerThread.getServer()
+											&& tempfile.length() > connection.getServer()
 													.getMaxUploadSize()) {
 										fileResult = HttpFileUpload.RESULT_SIZE;
 									}
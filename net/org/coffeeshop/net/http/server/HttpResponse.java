@@ -1,13 +1,24 @@
 package org.coffeeshop.net.http.server;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
 import java.util.TimeZone;
 
 import org.coffeeshop.net.html.SimpleHtmlDocument;
@@ -30,10 +41,35 @@ public class HttpResponse {
 			out.write(b);
 		}
 		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			
+			if (!headersSend)
+				sendHeaders();
+			
+			out.write(b, off, len);
+		}
+		
 	}
 
+	/**
+	 * Size of the buffer used to copy the files if the connection has no
+	 * channel.
+	 */
+	private static final int TRANSFER_BUFFER = 64 * 1024;
+
+	/**
+	 * Maximum number of ranges in a request, the requests with more ranges
+	 * receive the whole file.
+	 */
+	private static final int MAX_RANGES = 32;
+
+	private static final Random boundaryGenerator = new Random();
+
 	/** Status-Code 200: OK. */
 	public final static int HTTP_OK = 200;
+	/** Status-Code 206: Partial Content. */
+	public final static int HTTP_PARTIAL_CONTENT = 206;
 	/** Status-Code 301: Moved Permanently */
 	public final static int HTTP_MOVED_PERMANENTLY = 301;
 	/** Status-Code 400: Bad Request. */
@@ -44,8 +80,14 @@ public class HttpResponse {
 	public final static int HTTP_BAD_METHOD = 405;
 	/** Status-Code 411: Length Required. */
 	public final static int HTTP_LENGTH_REQUIRED = 411;
+	/** Status-Code 413: Request Entity Too Large. */
+	public final static int HTTP_ENTITY_TOO_LARGE = 413;
+	/** Status-Code 416: Requested Range Not Satisfiable. */
+	public final static int HTTP_RANGE_NOT_SATISFIABLE = 416;
 	/** Status-Code 500: Internal Server Error. */
 	public final static int HTTP_INTERNAL_ERROR = 500;
+	/** Status-Code 503: Service Unavailable. */
+	public final static int HTTP_SERVICE_UNAVAILABLE = 503;
 
 	/**
 	 * This method converts an error number to a name. When an invalid number is
@@ -62,6 +104,8 @@ public class HttpResponse {
 		switch (code) {
 		case HTTP_OK:
 			return "OK";
+		case HTTP_PARTIAL_CONTENT:
+			return "Partial Content";
 		case HTTP_BAD_REQUEST:
 			return "Bad Request";
 		case HTTP_NOT_FOUND:
@@ -70,6 +114,12 @@ public class HttpResponse {
 			return "Method Not Allowed";
 		case HTTP_LENGTH_REQUIRED:
 			return "Length Required";
+		case HTTP_ENTITY_TOO_LARGE:
+			return "Request Entity Too Large";
+		case HTTP_RANGE_NOT_SATISFIABLE:
+			return "Requested Range Not Satisfiable";
+		case HTTP_SERVICE_UNAVAILABLE:
+			return "Service Unavailable";
 		default:
 		case HTTP_INTERNAL_ERROR:
 			return "Internal Server Error";
@@ -106,6 +156,69 @@ public class HttpResponse {
 		
 	}
 	
+	/**
+	 * Returns a complete response that tells the client to come back later.
+	 * It is sent when the server is too busy to handle the connection, so
+	 * it does not need a request or a worker thread.
+	 * 
+	 * @param server
+	 *            the server information
+	 * @param retryAfter
+	 *            the number of seconds after which the client should retry
+	 * @return the response, including the headers
+	 */
+	public static byte[] getOverloadMessage(HttpServerInformation server, int retryAfter) {
+		return getClosingMessage(server, HTTP_SERVICE_UNAVAILABLE, "retry-after:" + retryAfter + "\r\n");
+	}
+	
+	/**
+	 * Returns a complete error response after which the connection is
+	 * closed. It is sent when a request can not be read at all, so it does
+	 * not need a request or a worker thread.
+	 * 
+	 * @param server
+	 *            the server information
+	 * @param httpResult
+	 *            the result code
+	 * @return the response, including the headers
+	 */
+	public static byte[] getErrorMessage(HttpServerInformation server, int httpResult) {
+		return getClosingMessage(server, httpResult, "");
+	}
+	
+	private static byte[] getClosingMessage(HttpServerInformation server, int httpResult, String extraHeaders) {
+		
+		String msg = getHttpResultText(httpResult);
+		
+		SimpleHtmlDocument document = new SimpleHtmlDocument(msg);
+		
+		document.append(Snippets.htmlTitle(msg));
+		document.append("<hr />");
+		document.append(Snippets.htmlParagraph("<em>" + server.getName() + "</em>"));
+		
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		
+		document.writeToStream(body);
+		
+		String headers = "HTTP/1.1 " + httpResult + " " + msg + "\r\n"
+			+ "date:" + dateFormatterGMT.format(new Date()) + "\r\n"
+			+ "server:" + server.getName() + "\r\n"
+			+ extraHeaders
+			+ "connection:close\r\n"
+			+ "content-type:text/html; charset=iso-8859-1\r\n"
+			+ "content-length:" + body.size() + "\r\n\r\n";
+		
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		
+		try {
+			message.write(headers.getBytes("ISO-8859-1"));
+			body.writeTo(message);
+		} catch (IOException e) {
+		}
+		
+		return message.toByteArray();
+	}
+	
 	private OutputStream out;
 
 	private String resultHeader;
@@ -115,6 +228,12 @@ public class HttpResponse {
 	private boolean headersSend = false;
 
 	private HttpServerInformation serverInfo;
+
+	/**
+	 * The request that is answered
+	 * 
+	 */
+	private HttpRequest request;
 	
 	
 	/**
@@ -131,10 +250,10 @@ public class HttpResponse {
 	private HashMap<String, Cookie> cookies = new HashMap<String, Cookie>();
 
 	/**
-	 * The server thread for accessing the server settings
+	 * The connection for accessing the server settings
 	 * 
 	 */
-	private HttpServerThread serverThread;
+	private HttpConnection connection;
 
 	/**
 	 * Should the connection be kept alive
@@ -163,28 +282,30 @@ public class HttpResponse {
 	 * pragma: no-cache
 	 * </pre>
 	 * 
-	 * @param thread
-	 *            the server thread
+	 * @param connection
+	 *            the connection of the client
 	 * @param writer
 	 *            the outputstream
 	 */
-	public HttpResponse(HttpServerThread thread, HttpRequest request, OutputStream out) {
+	public HttpResponse(HttpConnection connection, HttpRequest request, OutputStream out) {
 		this.out = out;
 		resultHeader = "HTTP/1.1 200 OK";
 		resultHeaderCode = 200;
 		headers.put("date:", dateFormatterGMT.format(new Date()));
-		headers.put("server:", thread.getServer().getName());
+		headers.put("server:", connection.getServer().getName());
 		headers.put("connection:", "close");
 		headers.put("content-type:", "text/html; charset=iso-8859-1");
 		headers
 				.put("cache-control:",
 						"no-store, no-cache, must-revalidate, post-check=0, pre-check=0");
 		headers.put("pragma:", "no-cache");
-		this.serverThread = thread;
+		this.connection = connection;
+		
+		this.request = request;
 		
 		this.keepAlive = request.isKeepAlive();
 		
-		this.serverInfo = thread.getServer();
+		this.serverInfo = connection.getServer();
 	}
 
 	/**
@@ -199,6 +320,9 @@ public class HttpResponse {
 		case HTTP_OK:
 			message += "OK";
 			break;
+		case HTTP_PARTIAL_CONTENT:
+			message += "Partial Content";
+			break;
 		case HTTP_BAD_REQUEST:
 			message += "Bad Request";
 			break;
@@ -211,6 +335,15 @@ public class HttpResponse {
 		case HTTP_LENGTH_REQUIRED:
 			message += "Length Required";
 			break;
+		case HTTP_ENTITY_TOO_LARGE:
+			message += "Request Entity Too Large";
+			break;
+		case HTTP_RANGE_NOT_SATISFIABLE:
+			message += "Requested Range Not Satisfiable";
+			break;
+		case HTTP_SERVICE_UNAVAILABLE:
+			message += "Service Unavailable";
+			break;
 		default:
 		case HTTP_INTERNAL_ERROR:
 			message += "Internal Server Error";
@@ -344,6 +477,331 @@ public class HttpResponse {
 		return new WatchedOutputStream();
 	}
 	
+	/**
+	 * Sends the file as the body of the response. The content length is
+	 * set, so that the connection can be kept alive. If the connection has
+	 * a socket channel, the file is transferred by the operating system
+	 * without copying it through the heap (<code>FileChannel.transferTo</code>),
+	 * otherwise it is copied to the output stream in large blocks.<br />
+	 * If the request contains a <code>Range</code> header (and the
+	 * <code>If-Range</code> condition, if any, matches the file), only the
+	 * requested parts are sent with <code>206 Partial Content</code>, several
+	 * parts as <code>multipart/byteranges</code>. The parts are read from
+	 * their positions in the file, nothing before them is read.<br />
+	 * The response to a <code>HEAD</code> request has the same headers, but
+	 * no body.<br />
+	 * Can only be called before the headers are sent!
+	 * 
+	 * @param file
+	 *            the file to send
+	 * @throws IOException
+	 *             if the file can not be read or the client does not accept
+	 *             the data
+	 */
+	public void sendFile(File file) throws IOException {
+		
+		if (headersSend)
+			throw new java.lang.UnsupportedOperationException(
+					"Headers already sent");
+		
+		FileInputStream in = new FileInputStream(file);
+		
+		try {
+			
+			FileChannel source = in.getChannel();
+			
+			long length = source.size();
+			long modified = file.lastModified();
+			
+			String tag = "\"" + Long.toHexString(modified) + "-" + Long.toHexString(length) + "\"";
+			String date = formatHttpDate(modified);
+			
+			setHeader("accept-ranges:", "bytes");
+			setHeader("etag:", tag);
+			setHeader("last-modified:", date);
+			
+			long[][] ranges = null;
+			
+			String range = request.getHeader("range:", null);
+			
+			if (range != null && resultHeaderCode == HTTP_OK) {
+				
+				String condition = request.getHeader("if-range:", null);
+				
+				// the ranges of a changed file are useless, the whole file
+				// is sent instead
+				if (condition == null || condition.trim().equals(tag)
+						|| condition.trim().equals(date))
+					ranges = parseRanges(range, length);
+				
+			}
+			
+			if (ranges == null) {
+				
+				setHeader("content-length:", String.valueOf(length));
+				
+				sendHeaders();
+				
+				if (!isHeadRequest())
+					transfer(source, 0, length);
+				
+				return;
+			}
+			
+			if (ranges.length == 0) {
+				
+				setHttpResult(HTTP_RANGE_NOT_SATISFIABLE);
+				setHeader("content-range:", "bytes */" + length);
+				setHeader("content-length:", "0");
+				
+				sendHeaders();
+				
+				return;
+			}
+			
+			setHttpResult(HTTP_PARTIAL_CONTENT);
+			
+			if (ranges.length == 1) {
+				
+				long start = ranges[0][0], end = ranges[0][1];
+				
+				setHeader("content-range:", "bytes " + start + "-" + end + "/" + length);
+				setHeader("content-length:", String.valueOf(end - start + 1));
+				
+				sendHeaders();
+				
+				if (!isHeadRequest())
+					transfer(source, start, end - start + 1);
+				
+				return;
+			}
+			
+			sendByteRanges(source, ranges, length);
+			
+		} finally {
+			in.close();
+		}
+		
+	}
+	
+	/**
+	 * Sends several parts of the file as a <code>multipart/byteranges</code>
+	 * body. The part headers are prepared first, so that the length of the
+	 * whole body is known.
+	 */
+	private void sendByteRanges(FileChannel source, long[][] ranges, long length) throws IOException {
+		
+		String boundary = "coffeeshop" + Long.toHexString(boundaryGenerator.nextLong());
+		String type = getHeader("content-type:", "application/octet-stream");
+		
+		byte[][] parts = new byte[ranges.length][];
+		byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1");
+		
+		long total = end.length;
+		
+		for (int i = 0; i < ranges.length; i++) {
+			
+			parts[i] = ("\r\n--" + boundary + "\r\n"
+					+ "content-type: " + type + "\r\n"
+					+ "content-range: bytes " + ranges[i][0] + "-" + ranges[i][1] + "/" + length + "\r\n"
+					+ "\r\n").getBytes("ISO-8859-1");
+			
+			total += parts[i].length + ranges[i][1] - ranges[i][0] + 1;
+		}
+		
+		setHeader("content-type:", "multipart/byteranges; boundary=" + boundary);
+		setHeader("content-length:", String.valueOf(total));
+		
+		sendHeaders();
+		
+		if (isHeadRequest())
+			return;
+		
+		for (int i = 0; i < ranges.length; i++) {
+			
+			out.write(parts[i]);
+			
+			transfer(source, ranges[i][0], ranges[i][1] - ranges[i][0] + 1);
+		}
+		
+		out.write(end);
+		
+	}
+	
+	/**
+	 * Parses the value of a <code>Range</code> header. The ranges that start
+	 * beyond the end of the file are dropped, the others are limited to the
+	 * file. The overlapping and adjacent ranges are merged, so that no part
+	 * of the file is sent more than once.
+	 * 
+	 * @param header
+	 *            the value of the header
+	 * @param length
+	 *            the length of the file
+	 * @return the first and the last byte of the ranges, an empty array if
+	 *         no range can be satisfied or <code>null</code> if the header is
+	 *         invalid and should be ignored
+	 */
+	private static long[][] parseRanges(String header, long length) {
+		
+		header = header.trim();
+		
+		if (!header.toLowerCase().startsWith("bytes="))
+			return null;
+		
+		String[] specs = header.substring(6).split(",");
+		
+		if (specs.length > MAX_RANGES)
+			return null;
+		
+		ArrayList<long[]> ranges = new ArrayList<long[]>();
+		
+		boolean empty = true;
+		
+		for (String spec : specs) {
+			
+			spec = spec.trim();
+			
+			if (spec.length() == 0)
+				continue;
+			
+			empty = false;
+			
+			int dash = spec.indexOf('-');
+			
+			if (dash < 0)
+				return null;
+			
+			long start, end;
+			
+			if (dash == 0) {
+				
+				// the last bytes of the file
+				long suffix = HttpUtils.parseLong(spec.substring(1), 10, -1);
+				
+				if (suffix < 0)
+					return null;
+				
+				if (suffix == 0 || length == 0)
+					continue;
+				
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+				
+			} else {
+				
+				start = HttpUtils.parseLong(spec.substring(0, dash), 10, -1);
+				end = dash == spec.length() - 1 ? Long.MAX_VALUE
+						: HttpUtils.parseLong(spec.substring(dash + 1), 10, -1);
+				
+				if (start < 0 || end < start)
+					return null;
+				
+				if (start >= length)
+					continue;
+				
+				end = Math.min(end, length - 1);
+				
+			}
+			
+			ranges.add(new long[] { start, end });
+		}
+		
+		if (empty)
+			return null;
+		
+		Collections.sort(ranges, new Comparator<long[]>() {
+			
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+			}
+			
+		});
+		
+		ArrayList<long[]> merged = new ArrayList<long[]>();
+		
+		for (long[] range : ranges) {
+			
+			long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			
+			if (last != null && range[0] <= last[1] + 1)
+				last[1] = Math.max(last[1], range[1]);
+			else
+				merged.add(range);
+			
+		}
+		
+		return merged.toArray(new long[merged.size()][]);
+	}
+	
+	/**
+	 * Formats the time as a HTTP date (RFC 1123).
+	 */
+	private static String formatHttpDate(long time) {
+		
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		
+		return format.format(new Date(time));
+	}
+	
+	/**
+	 * Tells if the body of the response must not be sent. The headers still
+	 * announce its length, so the connection can be kept alive.
+	 */
+	private boolean isHeadRequest() {
+		return request.getHttpMethod() == HttpRequest.HTTP_METHOD_HEAD;
+	}
+	
+	/**
+	 * Writes a part of the file to the client, the file position of the
+	 * channel is not used.
+	 */
+	private void transfer(FileChannel source, long position, long count) throws IOException {
+		
+		WritableByteChannel target = connection.getChannel();
+		
+		if (target != null) {
+			
+			// the data of the stream must not be overtaken
+			out.flush();
+			
+			while (count > 0) {
+				
+				long written = source.transferTo(position, count, target);
+				
+				if (written <= 0)
+					throw new IOException("File was truncated");
+				
+				position += written;
+				count -= written;
+			}
+			
+			return;
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER, Math.max(count, 1)));
+		
+		while (count > 0) {
+			
+			buffer.clear();
+			
+			if (count < buffer.capacity())
+				buffer.limit((int) count);
+			
+			int read = source.read(buffer, position);
+			
+			if (read < 0)
+				throw new IOException("File was truncated");
+			
+			out.write(buffer.array(), 0, read);
+			
+			position += read;
+			count -= read;
+		}
+		
+	}
+	
 	public boolean isKeepAlive() {
 		return keepAlive;
 	}
@@ -366,8 +824,8 @@ public class HttpResponse {
 				keepAlive = false;
 			
 			headers.put("keep-alive:", "timeout="
-					+ this.serverThread.getServer().getKeepAliveConnectionTimeout() + ",max="
-					+ this.serverThread.getServer().getMaxKeepAliveRequestPerConnection());
+					+ this.connection.getServer().getKeepAliveConnectionTimeout() + ",max="
+					+ this.connection.getServer().getMaxKeepAliveRequestPerConnection());
 			if (keepAlive) {
 				headers.put("connection:", "keep-alive");
 			} else {
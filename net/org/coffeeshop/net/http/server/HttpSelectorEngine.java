@@ -0,0 +1,729 @@
+package org.coffeeshop.net.http.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.coffeeshop.application.Application;
+
+/**
+ * A connection engine built on non-blocking channels. A few event loop
+ * threads accept the connections and read the requests; once a request is
+ * complete, it is handed to the worker pool of the server and the
+ * connection is not read until the response is written. The workers write
+ * the responses to a queue of the connection, that is sent by the event
+ * loop as the socket becomes writable, so the idle keep-alive connections
+ * do not occupy any thread.
+ *
+ * The engine is selected with the <code>httpd.connection.engine</code>
+ * setting (<code>selector</code>), the number of the event loops with
+ * <code>httpd.selector.threads</code>.
+ */
+class HttpSelectorEngine {
+
+	private static final int READ_BUFFER = 8192;
+
+	private static final int MAX_HEADER = 64 * 1024;
+
+	private static final int MAX_PENDING_OUTPUT = 64 * 1024;
+
+	private static final long IDLE_CHECK_INTERVAL = 1000;
+
+	// the results of requestLength that are not a length
+	private static final int INCOMPLETE = 0, TOO_LARGE = -1, LENGTH_REQUIRED = -2, BAD_FRAMING = -3;
+
+	/**
+	 * A connection served by an event loop.
+	 */
+	private class Client {
+
+		private SocketChannel channel;
+
+		private EventLoop loop;
+
+		private SelectionKey key;
+
+		private HttpConnection connection;
+
+		// received bytes that do not belong to a handled request yet
+		private byte[] input = new byte[READ_BUFFER];
+
+		private int inputLength = 0;
+
+		private LinkedList<ByteBuffer> output = new LinkedList<ByteBuffer>();
+
+		private long pendingOutput = 0;
+
+		private boolean busy = false, finished = false, keepAlive = false, closed = false;
+
+		private long lastActivity = System.currentTimeMillis();
+
+		public Client(SocketChannel channel, EventLoop loop) {
+			this.channel = channel;
+			this.loop = loop;
+			this.connection = new HttpConnection(server, channel.socket().getInetAddress());
+		}
+
+		/**
+		 * Queues the data for writing, blocks the worker while too much
+		 * data is waiting.
+		 */
+		public void write(byte[] data, int length) throws IOException {
+
+			synchronized (this) {
+
+				if (closed)
+					throw new IOException("Connection closed");
+
+				ByteBuffer buffer = ByteBuffer.allocate(length);
+				buffer.put(data, 0, length);
+				buffer.flip();
+
+				output.add(buffer);
+				pendingOutput += length;
+
+			}
+
+			loop.arm(this);
+
+			synchronized (this) {
+
+				while (pendingOutput > MAX_PENDING_OUTPUT && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted");
+					}
+				}
+
+				if (closed)
+					throw new IOException("Connection closed");
+
+			}
+
+		}
+
+		/**
+		 * Called by the worker once the response is complete.
+		 */
+		public void complete(boolean keepAlive) {
+
+			synchronized (this) {
+				this.finished = true;
+				this.keepAlive = keepAlive;
+			}
+
+			loop.arm(this);
+
+		}
+
+	}
+
+	/**
+	 * The output stream of a response, the data is collected into chunks
+	 * that are passed to the event loop.
+	 */
+	private static class ClientOutputStream extends OutputStream {
+
+		private Client client;
+
+		private byte[] buffer = new byte[READ_BUFFER];
+
+		private int length = 0;
+
+		public ClientOutputStream(Client client) {
+			this.client = client;
+		}
+
+		public void write(int b) throws IOException {
+
+			if (length == buffer.length)
+				flush();
+
+			buffer[length++] = (byte) b;
+
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException {
+
+			while (len > 0) {
+
+				if (length == buffer.length)
+					flush();
+
+				int count = Math.min(len, buffer.length - length);
+
+				System.arraycopy(b, off, buffer, length, count);
+
+				length += count;
+				off += count;
+				len -= count;
+
+			}
+
+		}
+
+		public void flush() throws IOException {
+
+			if (length == 0)
+				return;
+
+			client.write(buffer, length);
+
+			length = 0;
+
+		}
+
+	}
+
+	/**
+	 * Handles a complete request on a worker thread.
+	 */
+	private class RequestTask implements Runnable {
+
+		private Client client;
+
+		private byte[] request;
+
+		public RequestTask(Client client, byte[] request) {
+			this.client = client;
+			this.request = request;
+		}
+
+		public void run() {
+
+			boolean keepAlive = false;
+
+			try {
+
+				ClientOutputStream out = new ClientOutputStream(client);
+
+				keepAlive = client.connection.handle(new ByteArrayInputStream(request), out);
+
+				out.flush();
+
+			} catch (IOException e) {
+				keepAlive = false;
+			} catch (RuntimeException e) {
+				Application.getApplicationLogger().report(e);
+				keepAlive = false;
+			} finally {
+				client.complete(keepAlive);
+			}
+
+		}
+
+	}
+
+	private class EventLoop extends Thread {
+
+		private Selector selector;
+
+		private ConcurrentLinkedQueue<Client> registrations = new ConcurrentLinkedQueue<Client>();
+
+		private ConcurrentLinkedQueue<Client> armed = new ConcurrentLinkedQueue<Client>();
+
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER);
+
+		private long lastIdleCheck = System.currentTimeMillis();
+
+		public EventLoop(String name) throws IOException {
+			super(server.getThreadGroup(), name);
+			selector = Selector.open();
+		}
+
+		public void register(Client client) {
+			registrations.add(client);
+			selector.wakeup();
+		}
+
+		/**
+		 * Asks the loop to send the queued output of the client.
+		 */
+		public void arm(Client client) {
+			armed.add(client);
+			selector.wakeup();
+		}
+
+		public void run() {
+
+			try {
+
+				while (running) {
+
+					selector.select(IDLE_CHECK_INTERVAL);
+
+					Client client;
+
+					while ((client = registrations.poll()) != null) {
+						try {
+							client.key = client.channel.register(selector, SelectionKey.OP_READ, client);
+						} catch (IOException e) {
+							close(client);
+						}
+					}
+
+					while ((client = armed.poll()) != null)
+						write(client);
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+					while (it.hasNext()) {
+
+						SelectionKey key = it.next();
+						it.remove();
+
+						if (!key.isValid())
+							continue;
+
+						if (key.isAcceptable()) {
+							accept((ServerSocketChannel) key.channel());
+							continue;
+						}
+
+						client = (Client) key.attachment();
+
+						if (key.isReadable())
+							read(client);
+
+						if (key.isValid() && key.isWritable())
+							write(client);
+
+					}
+
+					closeIdle();
+
+				}
+
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+
+				for (SelectionKey key : selector.keys()) {
+
+					if (key.attachment() instanceof Client)
+						close((Client) key.attachment());
+					else
+						closeQuietly(key.channel());
+
+				}
+
+				try {
+					selector.close();
+				} catch (IOException e) {
+				}
+
+			}
+
+		}
+
+		private void accept(ServerSocketChannel serverChannel) throws IOException {
+
+			SocketChannel channel;
+
+			while ((channel = serverChannel.accept()) != null) {
+
+				if (!server.acquireClient(channel.socket().getInetAddress())) {
+					reject(channel, server.getOverloadMessage());
+					closeQuietly(channel);
+					continue;
+				}
+
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+
+				EventLoop loop = loops[nextLoop];
+				nextLoop = (nextLoop + 1) % loops.length;
+
+				loop.register(new Client(channel, loop));
+
+			}
+
+		}
+
+		private void read(Client client) {
+
+			int count;
+
+			try {
+
+				buffer.clear();
+				count = client.channel.read(buffer);
+
+			} catch (IOException e) {
+				count = -1;
+			}
+
+			if (count < 0) {
+				close(client);
+				return;
+			}
+
+			buffer.flip();
+
+			if (client.inputLength + count > client.input.length) {
+				byte[] tmp = new byte[Math.max(client.input.length * 2, client.inputLength + count)];
+				System.arraycopy(client.input, 0, tmp, 0, client.inputLength);
+				client.input = tmp;
+			}
+
+			buffer.get(client.input, client.inputLength, count);
+			client.inputLength += count;
+			client.lastActivity = System.currentTimeMillis();
+
+			dispatch(client);
+
+		}
+
+		/**
+		 * Passes the next request of the client to a worker if it was
+		 * received completely.
+		 */
+		private void dispatch(Client client) {
+
+			if (client.busy || client.closed)
+				return;
+
+			int length = requestLength(client.input, client.inputLength);
+
+			if (length == INCOMPLETE) {
+				client.key.interestOps(SelectionKey.OP_READ);
+				return;
+			}
+
+			if (length < 0) {
+
+				// the body can not be delimited, so the connection can not
+				// be used for another request
+				if (length == TOO_LARGE)
+					reject(client.channel, HttpResponse.getErrorMessage(server, HttpResponse.HTTP_ENTITY_TOO_LARGE));
+				else if (length == LENGTH_REQUIRED)
+					reject(client.channel, HttpResponse.getErrorMessage(server, HttpResponse.HTTP_LENGTH_REQUIRED));
+				else if (length == BAD_FRAMING)
+					reject(client.channel, HttpResponse.getErrorMessage(server, HttpResponse.HTTP_BAD_REQUEST));
+
+				close(client);
+				return;
+			}
+
+			byte[] request = new byte[length];
+			System.arraycopy(client.input, 0, request, 0, length);
+			System.arraycopy(client.input, length, client.input, 0, client.inputLength - length);
+			client.inputLength -= length;
+
+			client.busy = true;
+
+			// the connection is not read while the request is handled
+			client.key.interestOps(0);
+
+			try {
+				workers.execute(new RequestTask(client, request));
+			} catch (RejectedExecutionException e) {
+				reject(client.channel, server.getOverloadMessage());
+				close(client);
+			}
+
+		}
+
+		private void write(Client client) {
+
+			if (client.closed)
+				return;
+
+			boolean done;
+
+			synchronized (client) {
+
+				try {
+
+					while (!client.output.isEmpty()) {
+
+						ByteBuffer data = client.output.getFirst();
+
+						int count = client.channel.write(data);
+
+						client.pendingOutput -= count;
+
+						if (data.hasRemaining())
+							break;
+
+						client.output.removeFirst();
+
+					}
+
+				} catch (IOException e) {
+					close(client);
+					return;
+				}
+
+				client.notifyAll();
+
+				if (!client.output.isEmpty()) {
+					client.key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+
+				done = client.finished;
+
+				if (done)
+					client.finished = false;
+
+			}
+
+			client.lastActivity = System.currentTimeMillis();
+
+			if (!done) {
+
+				// the client may have been armed more than once, a late call
+				// must not stop the reading once the response is finished
+				if (client.busy)
+					client.key.interestOps(0);
+
+				return;
+			}
+
+			if (!client.keepAlive) {
+				close(client);
+				return;
+			}
+
+			client.busy = false;
+
+			// the next request may have been received already
+			dispatch(client);
+
+		}
+
+		private void closeIdle() {
+
+			long now = System.currentTimeMillis();
+
+			if (now - lastIdleCheck < IDLE_CHECK_INTERVAL)
+				return;
+
+			lastIdleCheck = now;
+
+			long timeout = server.getKeepAliveConnectionTimeout() * 1000L;
+
+			for (SelectionKey key : selector.keys()) {
+
+				if (!(key.attachment() instanceof Client))
+					continue;
+
+				Client client = (Client) key.attachment();
+
+				if (!client.busy && now - client.lastActivity > timeout)
+					close(client);
+
+			}
+
+		}
+
+	}
+
+	private HttpServer server;
+
+	private ExecutorService workers;
+
+	private EventLoop[] loops;
+
+	private int nextLoop = 0;
+
+	private volatile boolean running = false;
+
+	public HttpSelectorEngine(HttpServer server, ExecutorService workers, int threads) {
+
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one event loop is required");
+
+		this.server = server;
+		this.workers = workers;
+		this.loops = new EventLoop[threads];
+
+	}
+
+	/**
+	 * Opens the server socket and starts the event loops, the first loop
+	 * also accepts the connections.
+	 *
+	 * @throws IOException if the socket can not be opened
+	 */
+	public void start() throws IOException {
+
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+
+		try {
+
+			serverChannel.socket().bind(new InetSocketAddress(server.getPort()),
+					server.getMaxQueue());
+			serverChannel.configureBlocking(false);
+
+			for (int i = 0; i < loops.length; i++)
+				loops[i] = new EventLoop("selector" + i);
+
+			serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+
+		} catch (IOException e) {
+			closeQuietly(serverChannel);
+			throw e;
+		}
+
+		running = true;
+
+		for (int i = 0; i < loops.length; i++)
+			loops[i].start();
+
+	}
+
+	/**
+	 * Stops the event loops, all the connections are closed.
+	 */
+	public void stop() {
+
+		running = false;
+
+		for (int i = 0; i < loops.length; i++)
+			if (loops[i] != null)
+				loops[i].selector.wakeup();
+
+	}
+
+	private void close(Client client) {
+
+		synchronized (client) {
+
+			if (client.closed)
+				return;
+
+			client.closed = true;
+			client.output.clear();
+			client.notifyAll();
+		}
+
+		if (client.key != null)
+			client.key.cancel();
+
+		server.releaseClient(client.connection.getRemoteAddress());
+
+		closeQuietly(client.channel);
+
+	}
+
+	/**
+	 * Sends a response that ends the connection, for example that the
+	 * server is too busy. The response is small, so it is written without
+	 * waiting for the socket to become writable; whatever does not fit into
+	 * the socket buffer is dropped.
+	 */
+	private void reject(SocketChannel channel, byte[] message) {
+
+		try {
+			channel.write(ByteBuffer.wrap(message));
+		} catch (IOException e) {
+		}
+
+	}
+
+	/**
+	 * Returns the length of the first request in the data. Only the bodies
+	 * delimited by the <code>content-length</code> header are supported,
+	 * the other transfer codings are refused.
+	 *
+	 * @return the length of the request, {@link #INCOMPLETE} if the request
+	 *         is not complete, {@link #TOO_LARGE} if the request is too
+	 *         large, {@link #LENGTH_REQUIRED} if the body uses a transfer
+	 *         coding or {@link #BAD_FRAMING} if the length is invalid or
+	 *         ambiguous
+	 */
+	private int requestLength(byte[] data, int length) {
+
+		int end = -1;
+
+		for (int i = 0; i < length - 1 && i < MAX_HEADER; i++) {
+
+			if (data[i] != '\n')
+				continue;
+
+			if (data[i + 1] == '\n') {
+				end = i + 2;
+				break;
+			}
+
+			if (data[i + 1] == '\r' && i + 2 < length && data[i + 2] == '\n') {
+				end = i + 3;
+				break;
+			}
+
+		}
+
+		if (end == -1)
+			return length >= MAX_HEADER ? TOO_LARGE : INCOMPLETE;
+
+		long contentLength = -1;
+
+		char[] header = new char[end];
+
+		for (int i = 0; i < end; i++)
+			header[i] = (char) (data[i] & 0xff);
+
+		String[] lines = new String(header).split("\r?\n");
+
+		for (int i = 1; i < lines.length; i++) {
+
+			String line = lines[i].toLowerCase();
+
+			if (line.startsWith("transfer-encoding:")) {
+
+				if (!line.substring(18).trim().equals("identity"))
+					return LENGTH_REQUIRED;
+
+				continue;
+			}
+
+			if (!line.startsWith("content-length:"))
+				continue;
+
+			long value = HttpUtils.parseLong(line.substring(15).trim(), 10, -1);
+
+			// repeated headers are only accepted if they agree
+			if (value < 0 || (contentLength >= 0 && value != contentLength))
+				return BAD_FRAMING;
+
+			contentLength = value;
+
+		}
+
+		if (contentLength < 0)
+			contentLength = 0;
+
+		if (contentLength > (long) server.getMaxUploadSize() + MAX_HEADER)
+			return TOO_LARGE;
+
+		if (end + contentLength > length)
+			return INCOMPLETE;
+
+		return (int) (end + contentLength);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+
+		try {
+			closeable.close();
+		} catch (IOException e) {
+		}
+
+	}
+
+}
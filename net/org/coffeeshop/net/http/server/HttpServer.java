@@ -1,22 +1,88 @@
 package org.coffeeshop.net.http.server;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.lang.reflect.Method;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.coffeeshop.net.http.server.resource.Folder;
 import org.coffeeshop.settings.ReadableSettings;
 
+/**
+ * An embedded HTTP server. Besides the general settings, the server reads
+ * the following connection settings from its configuration:
+ * 
+ * <ul>
+ * <li><code>httpd.connection.engine</code> - {@link #ENGINE_THREADS} or
+ * {@link #ENGINE_SELECTOR}; the selector engine receives the whole request
+ * before it is handled, so every connection may hold up to
+ * <code>httpd.uploadsize</code> bytes of the body on the heap, and the
+ * request is copied once more when it is passed to a worker. Lower the
+ * upload size if many clients upload at once</li>
+ * <li><code>httpd.worker.threads</code> - size of the worker pool; with the
+ * threads engine every open connection holds a worker, including the idle
+ * kept-alive ones, see <code>httpd.worker.idletimeout</code></li>
+ * <li><code>httpd.worker.idletimeout</code> - the longest time in seconds a
+ * worker of the pool waits for the next request of a connection (the
+ * shorter <code>httpd.connection.keepalivetimeout</code> applies if it is
+ * lower). A kept-alive connection is also closed after a request once
+ * other connections wait for a worker. A low value lets the pool serve
+ * more clients than it has threads and limits how long idle or very slow
+ * clients can occupy it, at the cost of more reconnects; the virtual
+ * threads and the selector engine are not limited by it</li>
+ * <li><code>httpd.worker.queue</code> - number of connections (or requests
+ * with the selector engine) that wait for a worker, once the queue is full
+ * the clients receive <code>503 Service Unavailable</code></li>
+ * <li><code>httpd.worker.retryafter</code> - value of the
+ * <code>Retry-After</code> header of the 503 response in seconds</li>
+ * <li><code>httpd.connection.maxperclient</code> - maximum number of
+ * concurrent connections from a single address, 0 for no limit</li>
+ * <li><code>httpd.worker.virtual</code> - run every task on a virtual thread
+ * of its own instead of the pool; used only if the runtime supports virtual
+ * threads, see {@link #isVirtualThreads()}</li>
+ * <li><code>httpd.worker.virtual.max</code> - maximum number of concurrent
+ * virtual threads, the further connections receive the 503 response</li>
+ * </ul>
+ */
 public class HttpServer implements HttpServerInformation {
 
+	/**
+	 * Connection engine that handles every connection with a thread of the
+	 * worker pool, reading from the blocking socket streams.
+	 */
+	public static final String ENGINE_THREADS = "threads";
+
+	/**
+	 * Connection engine that multiplexes the connections with a selector
+	 * and handles the requests in a worker pool.
+	 */
+	public static final String ENGINE_SELECTOR = "selector";
+
 	private class HttpServerAcceptorThread extends Thread {
 
 		public void run() {
 			try {
 				try {
-					// create the server socket
-					ServerSocket ssocket = new ServerSocket(port, maxqueue);
+					// create the server socket, the accepted sockets have a
+					// channel that the files can be transferred to
+					ServerSocket ssocket = ServerSocketChannel.open().socket();
+					ssocket.bind(new InetSocketAddress(port), maxqueue);
 					ssocket.setSoTimeout(5000); // 5 seconds
 					try {
 						while (!interrupted()) {
@@ -26,6 +92,8 @@ public class HttpServer implements HttpServerInformation {
 								handleClient(socket);
 							} catch (SocketTimeoutException e) {
 								
+							} catch (ClosedByInterruptException e) {
+								break;
 							}
 						}
 					} finally {
@@ -44,18 +112,95 @@ public class HttpServer implements HttpServerInformation {
 		}
 	}
 	
+	/**
+	 * Limits the number of the tasks that run at the same time, the
+	 * further tasks are rejected.
+	 */
+	private static class LimitedExecutor extends AbstractExecutorService {
+		
+		private ExecutorService executor;
+		
+		private Semaphore permits;
+		
+		public LimitedExecutor(ExecutorService executor, int limit) {
+			this.executor = executor;
+			this.permits = new Semaphore(Math.max(1, limit));
+		}
+		
+		public void execute(final Runnable command) {
+			
+			if (!permits.tryAcquire())
+				throw new RejectedExecutionException("Too many concurrent tasks");
+			
+			try {
+				
+				executor.execute(new Runnable() {
+					
+					public void run() {
+						try {
+							command.run();
+						} finally {
+							permits.release();
+						}
+					}
+					
+				});
+				
+			} catch (RejectedExecutionException e) {
+				permits.release();
+				throw e;
+			}
+			
+		}
+		
+		public void shutdown() {
+			executor.shutdown();
+		}
+		
+		public List<Runnable> shutdownNow() {
+			return executor.shutdownNow();
+		}
+		
+		public boolean isShutdown() {
+			return executor.isShutdown();
+		}
+		
+		public boolean isTerminated() {
+			return executor.isTerminated();
+		}
+		
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return executor.awaitTermination(timeout, unit);
+		}
+		
+	}
+	
 	private int port;
 
 	private int maxqueue;
 
+	private String engine;
+
+	private int selectorThreads, workerThreads, workerQueue;
+
+	private int retryAfter, maxConnectionsPerClient, workerIdleTimeout;
+
+	private HashMap<InetAddress, Integer> clientConnections = new HashMap<InetAddress, Integer>();
+
+	private ExecutorService workers = null;
+
+	private boolean virtualWorkers, virtualThreads = false;
+
+	private int virtualLimit;
+
+	private HttpSelectorEngine selectorEngine = null;
+
 	private InetAddress address;
 
 	private String threadGroupName;
 	
 	private ThreadGroup threadGroup;
 
-	private int threadCounter = 0;
-
 	private HttpServerAcceptorThread acceptor = null;
 	
 	private int keepAliveConnectionTimeout, maxKeepAliveRequestPerConnection;
@@ -94,6 +239,22 @@ public class HttpServer implements HttpServerInformation {
 
 		
 		this.maxqueue = configuration.getInt("httpd.connection.maxqueue", 30);
+		this.engine = configuration.getString("httpd.connection.engine", ENGINE_THREADS);
+		
+		if (!engine.equals(ENGINE_THREADS) && !engine.equals(ENGINE_SELECTOR))
+			throw new IllegalArgumentException("Unknown connection engine: " + engine);
+		
+		this.selectorThreads = configuration.getInt("httpd.selector.threads", 1);
+		this.workerThreads = configuration.getInt("httpd.worker.threads", 64);
+		this.workerQueue = configuration.getInt("httpd.worker.queue", 64);
+		this.retryAfter = configuration.getInt("httpd.worker.retryafter", 5);
+		this.workerIdleTimeout = configuration.getInt("httpd.worker.idletimeout", 5);
+		this.maxConnectionsPerClient = configuration.getInt("httpd.connection.maxperclient", 0);
+		this.virtualWorkers = configuration.getBoolean("httpd.worker.virtual", false);
+		this.virtualLimit = configuration.getInt("httpd.worker.virtual.max", 10000);
+		
+		if (workerThreads < 1)
+			throw new IllegalArgumentException("At least one worker thread is required");
 		
 		if (bindAddress != null) {
 			this.address = bindAddress;
@@ -123,8 +284,26 @@ public class HttpServer implements HttpServerInformation {
 
 	public void start() {
 		
-		if (acceptor != null)
+		if (acceptor != null || selectorEngine != null)
+			return;
+		
+		workers = createWorkers();
+		
+		if (engine.equals(ENGINE_SELECTOR)) {
+			
+			selectorEngine = new HttpSelectorEngine(this, workers, selectorThreads);
+			
+			try {
+				selectorEngine.start();
+			} catch (IOException e) {
+				e.printStackTrace();
+				selectorEngine = null;
+				workers.shutdownNow();
+				workers = null;
+			}
+			
 			return;
+		}
 		
 		acceptor = new HttpServerAcceptorThread();
 		
@@ -138,6 +317,91 @@ public class HttpServer implements HttpServerInformation {
 			acceptor = null;
 		}
 		
+		if (selectorEngine != null) {
+			selectorEngine.stop();
+			selectorEngine = null;
+		}
+		
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+		
+	}
+	
+	/**
+	 * Creates the pool of the threads that handle the requests, configured
+	 * with the <code>httpd.worker.threads</code> and
+	 * <code>httpd.worker.queue</code> settings, or the executor of the
+	 * virtual threads if they were requested and are available.
+	 */
+	private ExecutorService createWorkers() {
+		
+		virtualThreads = false;
+		
+		if (virtualWorkers) {
+			
+			ExecutorService executor = createVirtualWorkers();
+			
+			if (executor != null) {
+				virtualThreads = true;
+				return executor;
+			}
+			
+		}
+		
+		ThreadFactory factory = new ThreadFactory() {
+			
+			private int counter = 0;
+			
+			public synchronized Thread newThread(Runnable r) {
+				return new Thread(threadGroup, r, "worker" + (counter++));
+			}
+			
+		};
+		
+		return new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, workerQueue)), factory);
+	}
+	
+	/**
+	 * Creates an executor that starts a virtual thread for every task. The
+	 * API is looked up by reflection, so that the server still runs on the
+	 * older runtimes.
+	 * 
+	 * @return the executor or <code>null</code> if the runtime has no
+	 *         virtual threads
+	 */
+	private ExecutorService createVirtualWorkers() {
+		
+		try {
+			
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "worker", 0L);
+			
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			
+			Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			
+			return new LimitedExecutor((ExecutorService) perTask.invoke(null, factory), virtualLimit);
+			
+		} catch (Exception e) {
+			return null;
+		}
+		
+	}
+	
+	/**
+	 * Tells if the requests are handled by virtual threads. This is only
+	 * the case if the <code>httpd.worker.virtual</code> setting is enabled,
+	 * the runtime supports virtual threads and the server was started.
+	 * 
+	 * @return <code>true</code> if the workers are virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		return virtualThreads;
 	}
 	
 	public ReadableSettings getConfiguration() {
@@ -151,9 +415,121 @@ public class HttpServer implements HttpServerInformation {
 	 *            the socket that represents the client.
 	 */
 	private void handleClient(Socket socket) {
-		HttpServerThread thread = new HttpServerThread(threadGroup, "thread"
-				+ (threadCounter++), this, socket);
-		thread.start();
+		
+		InetAddress client = socket.getInetAddress();
+		
+		if (!acquireClient(client)) {
+			reject(socket);
+			return;
+		}
+		
+		try {
+			workers.execute(new HttpServerThread(this, socket));
+		} catch (RejectedExecutionException e) {
+			releaseClient(client);
+			reject(socket);
+		}
+		
+	}
+	
+	/**
+	 * Tells the client that the server is too busy and closes the
+	 * connection.
+	 */
+	private void reject(Socket socket) {
+		
+		try {
+			socket.getOutputStream().write(getOverloadMessage());
+		} catch (IOException e) {
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		
+	}
+	
+	/**
+	 * Returns the time in milliseconds that a worker of the threads engine
+	 * waits for the data of a connection. The pooled workers wait at most
+	 * <code>httpd.worker.idletimeout</code> seconds, so that the idle
+	 * connections can not occupy the pool for long.
+	 */
+	int getConnectionTimeout() {
+		
+		if (virtualThreads || workerIdleTimeout < 1)
+			return keepAliveConnectionTimeout * 1000;
+		
+		return Math.min(keepAliveConnectionTimeout, workerIdleTimeout) * 1000;
+	}
+	
+	/**
+	 * Tells if there are connections waiting for a worker of the pool, in
+	 * that case the workers should not keep the connections alive.
+	 */
+	boolean isWorkerPoolSaturated() {
+		
+		ExecutorService executor = workers;
+		
+		if (!(executor instanceof ThreadPoolExecutor))
+			return false;
+		
+		return !((ThreadPoolExecutor) executor).getQueue().isEmpty();
+	}
+	
+	/**
+	 * Returns the response that is sent when the worker queue is full or
+	 * the client has too many connections.
+	 */
+	byte[] getOverloadMessage() {
+		return HttpResponse.getOverloadMessage(this, retryAfter);
+	}
+	
+	/**
+	 * Counts a new connection of the client.
+	 * 
+	 * @return <code>false</code> if the client already has the maximum
+	 *         number of connections (see
+	 *         <code>httpd.connection.maxperclient</code>)
+	 */
+	boolean acquireClient(InetAddress client) {
+		
+		synchronized (clientConnections) {
+			
+			Integer count = clientConnections.get(client);
+			
+			int connections = count == null ? 0 : count;
+			
+			if (maxConnectionsPerClient > 0 && connections >= maxConnectionsPerClient)
+				return false;
+			
+			clientConnections.put(client, connections + 1);
+			
+			return true;
+		}
+		
+	}
+	
+	/**
+	 * Counts a closed connection of the client.
+	 */
+	void releaseClient(InetAddress client) {
+		
+		synchronized (clientConnections) {
+			
+			Integer count = clientConnections.get(client);
+			
+			if (count == null)
+				return;
+			
+			if (count > 1)
+				clientConnections.put(client, count - 1);
+			else
+				clientConnections.remove(client);
+			
+		}
+		
 	}
 
 	/* (non-Javadoc)
@@ -221,4 +597,22 @@ public class HttpServer implements HttpServerInformation {
 		return address;
 	}
 	
+	int getMaxQueue() {
+		return maxqueue;
+	}
+	
+	ThreadGroup getThreadGroup() {
+		return threadGroup;
+	}
+	
+	/**
+	 * Returns the name of the connection engine, either
+	 * {@link #ENGINE_THREADS} or {@link #ENGINE_SELECTOR}.
+	 * 
+	 * @return the name of the engine
+	 */
+	public String getEngine() {
+		return engine;
+	}
+	
 }
\ No newline at end of file
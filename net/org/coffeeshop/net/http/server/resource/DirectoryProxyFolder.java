@@ -1,11 +1,8 @@
 package org.coffeeshop.net.http.server.resource;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.OutputStream;
 import java.util.HashMap;
 
-import org.coffeeshop.io.Streams;
 import org.coffeeshop.net.html.SimpleHtmlDocument;
 import org.coffeeshop.net.html.Snippets;
 import org.coffeeshop.net.http.server.HttpRequest;
@@ -63,15 +60,9 @@ public class DirectoryProxyFolder extends ProxyFolder {
 		}
 
 		if (file.isFile() && file.canRead()) {
-			OutputStream out = response.getOutputStream();
-			
-			FileInputStream in = new FileInputStream(file);
-			
 			response.setHeader("content-type:", MimeTypes.getMimeType(file.getAbsolutePath()));
 			
-			Streams.copyStream(in, out);
-			
-			in.close();
+			response.sendFile(file);
 
 			return;
 		}